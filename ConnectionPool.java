@@ -0,0 +1,214 @@
+package at.koodi;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of JDBC connections. Connections are validated before they are handed out,
+ * replaced once they reach their maximum lifetime and closed after sitting idle too long.
+ */
+public class ConnectionPool implements AutoCloseable {
+    private final String url;
+    private final int maxSize;
+    private final long maxLifetimeMillis;
+    private final long idleTimeoutMillis;
+    private final long borrowTimeoutMillis;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+    private final StatementLog statementLog;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final ScheduledExecutorService evictor;
+
+    private final LatencyHistogram waits = new LatencyHistogram();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong opened = new AtomicLong();
+
+    private volatile boolean closed = false;
+
+    public ConnectionPool(String url, Settings settings) {
+        this.url = url;
+        this.maxSize = Math.max(1, settings.GetInt("pool.size", 8));
+        this.maxLifetimeMillis = settings.GetLong("pool.maxLifetimeMs", 30 * 60 * 1000L);
+        this.idleTimeoutMillis = settings.GetLong("pool.idleTimeoutMs", 10 * 60 * 1000L);
+        this.borrowTimeoutMillis = settings.GetLong("pool.borrowTimeoutMs", 30 * 1000L);
+        this.validationTimeoutSeconds = settings.GetInt("pool.validationTimeoutS", 5);
+        this.statementCacheSize = Math.max(1, settings.GetInt("pool.statementCacheSize", 64));
+        this.statementLog = new StatementLog(settings);
+        this.permits = new Semaphore(maxSize, true);
+
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pool-evictor");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        long evictInterval = Math.max(1000, Math.min(idleTimeoutMillis, maxLifetimeMillis) / 2);
+        evictor.scheduleWithFixedDelay(this::EvictIdle, evictInterval, evictInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public int MaxSize() {
+        return maxSize;
+    }
+
+    /** Connections currently borrowed. */
+    public int InUse() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public int Idle() {
+        return idle.size();
+    }
+
+    /** How long Borrow waited for a free connection, including opening a new one. */
+    public LatencyHistogram WaitTimes() {
+        return waits;
+    }
+
+    public long Timeouts() {
+        return timeouts.get();
+    }
+
+    public long Opened() {
+        return opened.get();
+    }
+
+    public StatementLog StatementLog() {
+        return statementLog;
+    }
+
+    public String Stats() {
+        return "Pool: " + InUse() + "/" + maxSize + " in use, " + Idle() + " idle, " + Opened() + " opened, "
+                + Timeouts() + " borrow timeouts, wait " + waits.Summary();
+    }
+
+    public PooledConnection Borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+
+                throw new SQLTimeoutException(
+                        "No connection available within " + borrowTimeoutMillis + " ms (pool size " + maxSize + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+
+        try {
+            PooledConnection pooled;
+
+            while ((pooled = idle.pollFirst()) != null) {
+                if (IsUsable(pooled)) {
+                    pooled.MarkBorrowed();
+                    waits.Record(System.nanoTime() - start);
+
+                    return pooled;
+                }
+
+                pooled.CloseQuietly();
+            }
+
+            pooled = new PooledConnection(this, DriverManager.getConnection(url), statementCacheSize, statementLog);
+            pooled.MarkBorrowed();
+            opened.incrementAndGet();
+            waits.Record(System.nanoTime() - start);
+
+            return pooled;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+
+            throw e;
+        }
+    }
+
+    void Release(PooledConnection pooled) {
+        boolean keep = !closed && !IsExpired(pooled, System.currentTimeMillis());
+
+        if (keep) {
+            try {
+                Connection connection = pooled.Connection();
+
+                if (connection.isClosed()) {
+                    keep = false;
+                } else if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                keep = false;
+            }
+        }
+
+        if (keep) {
+            pooled.MarkReturned();
+            idle.offerFirst(pooled);
+        } else {
+            pooled.CloseQuietly();
+        }
+
+        permits.release();
+    }
+
+    private boolean IsUsable(PooledConnection pooled) {
+        if (IsExpired(pooled, System.currentTimeMillis())) {
+            return false;
+        }
+
+        try {
+            return pooled.Connection().isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private boolean IsExpired(PooledConnection pooled, long now) {
+        return maxLifetimeMillis > 0 && now - pooled.CreatedAt() >= maxLifetimeMillis;
+    }
+
+    private void EvictIdle() {
+        long now = System.currentTimeMillis();
+
+        Iterator<PooledConnection> iterator = idle.iterator();
+        while (iterator.hasNext()) {
+            PooledConnection pooled = iterator.next();
+
+            boolean idleTooLong = idleTimeoutMillis > 0 && now - pooled.LastUsedAt() >= idleTimeoutMillis;
+
+            if ((idleTooLong || IsExpired(pooled, now)) && idle.removeFirstOccurrence(pooled)) {
+                pooled.CloseQuietly();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            pooled.CloseQuietly();
+        }
+
+        statementLog.close();
+    }
+}
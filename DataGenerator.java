@@ -0,0 +1,165 @@
+package at.koodi;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic synthetic data for the performance test. Every value is derived from the seed and the index of
+ * the row it belongs to, never from the order rows are generated in, so splitting the work across any number of
+ * threads produces the same rows.
+ *
+ * Packages pick their customer and events pick their location from a Zipf distribution with exponent skew, so
+ * a few big customers and hub locations get most of the rows. The number of events per package varies
+ * log-normally around the mean. Packages are created in id order over the given days, and the events of a
+ * package are in time order within its lifetime of at most three days.
+ */
+public class DataGenerator {
+    public interface EventSink {
+        void Accept(int location, Timestamp timestamp, String description) throws SQLException;
+    }
+
+    private static final long LIFETIME_MILLIS = 3 * 24 * 3600 * 1000L;
+    private static final double EVENT_COUNT_SIGMA = 1.0;
+
+    private static final long CUSTOMER_SALT = 0x5DEECE66DL;
+    private static final long COUNT_SALT = 0x2545F4914F6CDD1DL;
+    private static final long EVENT_SALT = 0x9E3779B97F4A7C15L;
+
+    private final int packages;
+    private final long seed;
+    private final long startMillis;
+    private final long windowMillis;
+
+    private final Zipf locationPicker;
+    private final Zipf customerPicker;
+
+    // firstEvent[p] is the number of events of the packages before p; firstEvent[packages + 1] is the total.
+    private final long[] firstEvent;
+
+    public DataGenerator(int locations, int customers, int packages, long events, double skew, LocalDate lastDay, int days, long seed) {
+        this.packages = packages;
+        this.seed = seed;
+        this.windowMillis = Math.max(1, days) * 24 * 3600 * 1000L;
+        this.startMillis = Timestamp.valueOf(lastDay.plusDays(1).atStartOfDay()).getTime() - windowMillis;
+        this.locationPicker = new Zipf(locations, skew, new SplittableRandom(seed ^ EVENT_SALT));
+        this.customerPicker = new Zipf(customers, skew, new SplittableRandom(seed ^ CUSTOMER_SALT));
+
+        double[] cumulative = new double[packages + 1];
+
+        for (int p = 1; p <= packages; p++) {
+            cumulative[p] = cumulative[p - 1] + Math.exp(EVENT_COUNT_SIGMA * Random(p, COUNT_SALT).nextGaussian());
+        }
+
+        this.firstEvent = new long[packages + 2];
+
+        for (int p = 1; p <= packages; p++) {
+            firstEvent[p] = (long) Math.floor(events * (cumulative[p - 1] / cumulative[packages]));
+        }
+
+        firstEvent[packages + 1] = events;
+    }
+
+    public static String LocationName(int location) {
+        return "P" + location;
+    }
+
+    public static String CustomerName(int customer) {
+        return "A" + customer;
+    }
+
+    public static String TrackingCode(int pkg) {
+        return "TC" + pkg;
+    }
+
+    /** The customer (1-based index) that owns the package. */
+    public int CustomerOf(int pkg) {
+        return customerPicker.Next(Random(pkg, CUSTOMER_SALT));
+    }
+
+    public long EventCount(int pkg) {
+        return firstEvent[pkg + 1] - firstEvent[pkg];
+    }
+
+    /** Events of the packages before pkg; splits the event stage into ranges of packages with even work. */
+    public long EventsBefore(int pkg) {
+        return firstEvent[pkg];
+    }
+
+    /** Hands the events of the package to the sink in time order. */
+    public void ForEachEvent(int pkg, EventSink sink) throws SQLException {
+        int count = (int) EventCount(pkg);
+
+        if (count == 0) {
+            return;
+        }
+
+        SplittableRandom rand = Random(pkg, EVENT_SALT);
+
+        long slot = Math.max(1, windowMillis / packages);
+        long created = startMillis + (pkg - 1) * slot + rand.nextLong(slot);
+        long lifetime = Math.min(LIFETIME_MILLIS, startMillis + windowMillis - created);
+
+        // Exponential gaps scaled to the lifetime give sorted, Poisson-like arrival times.
+        double[] at = new double[count + 1];
+        double total = 0;
+
+        for (int i = 0; i <= count; i++) {
+            total += -Math.log(1 - rand.nextDouble());
+            at[i] = total;
+        }
+
+        for (int i = 0; i < count; i++) {
+            long time = created + (i == 0 ? 0 : (long) (lifetime * (at[i - 1] / total)));
+            String description = i == 0 ? "Package registered." : i == count - 1 ? "Delivered." : "In transit.";
+
+            sink.Accept(locationPicker.Next(rand), new Timestamp(time), description);
+        }
+    }
+
+    private SplittableRandom Random(int row, long salt) {
+        return new SplittableRandom((seed ^ salt) + row * 0xBF58476D1CE4E5B9L);
+    }
+
+    // Zipf over 1..n by inverting its cumulative distribution; ranks are shuffled so popularity does not follow ids.
+    private static class Zipf {
+        private final double[] cumulative;
+        private final int[] items;
+
+        Zipf(int n, double exponent, SplittableRandom shuffle) {
+            cumulative = new double[n];
+            items = new int[n];
+
+            double sum = 0;
+
+            for (int i = 0; i < n; i++) {
+                sum += 1 / Math.pow(i + 1, exponent);
+                cumulative[i] = sum;
+                items[i] = i + 1;
+            }
+
+            for (int i = 0; i < n; i++) {
+                cumulative[i] /= sum;
+            }
+
+            for (int i = n - 1; i > 0; i--) {
+                int j = shuffle.nextInt(i + 1);
+                int swap = items[i];
+                items[i] = items[j];
+                items[j] = swap;
+            }
+        }
+
+        int Next(SplittableRandom rand) {
+            int index = Arrays.binarySearch(cumulative, rand.nextDouble());
+
+            if (index < 0) {
+                index = -index - 1;
+            }
+
+            return items[Math.min(index, items.length - 1)];
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package at.koodi;
+
+import java.util.List;
+
+/**
+ * All SQL the app sends goes through a dialect. The defaults are plain SQL that both
+ * SQL Server and H2 understand; subclasses override what differs between the engines.
+ */
+public abstract class Dialect {
+    /** A secondary index. Columns listed in include are only stored in the leaf level where the engine supports it. */
+    public record Index(String name, String table, String columns, String include) {
+    }
+
+    /** The columns of the event queries, in the order {@link EventCursor} reads them. */
+    public static final String EVENT_COLUMNS = "id, timestamp, package_id, location_id, description";
+
+    public static Dialect ForName(String name) {
+        switch (name.toLowerCase()) {
+            case "sqlserver":
+                return new SqlServerDialect();
+            case "h2":
+                return new H2Dialect();
+            default:
+                throw new IllegalArgumentException("Unknown backend " + name + ". Use sqlserver, h2 or log.");
+        }
+    }
+
+    public abstract String Name();
+
+    public abstract String JdbcUrl(Settings settings);
+
+    /**
+     * Creates the tables, adds the package event counters to a Packages table created without them and
+     * installs the TR_Events_Counters trigger that keeps them up to date. Safe to run on an existing schema.
+     * EventsArchive has the columns of Events and holds the events moved out by {@link #ArchiveEvents}, indexed
+     * by package and by location, as every event query reads it too.
+     */
+    public abstract List<String> CreateTables();
+
+    /**
+     * Lays Events out in monthly partitions by timestamp, with partitions up to monthsAhead months past the
+     * current one, and adds any partitions missing since. Safe to run again; an unpartitioned Events table is
+     * converted, which rewrites it.
+     */
+    public abstract List<String> PartitionEventsByMonth(int monthsAhead);
+
+    /**
+     * Moves up to a batch of events older than a cutoff from Events to EventsArchive in one statement, only
+     * for packages with no event since the cutoff, so a package's history is archived as a whole. Parameters
+     * are the cutoff and the batch size; the update count is the number of events moved.
+     */
+    public abstract String ArchiveEvents();
+
+    /** Empties all tables and restarts their ids from 1. */
+    public abstract List<String> ClearTables();
+
+    public abstract String CreateIndex(Index index);
+
+    public abstract String DropIndex(Index index);
+
+    /** The secondary indexes supporting the lookups and reports; each read path filters on one of these. */
+    public List<Index> SecondaryIndexes() {
+        return List.of(
+                new Index("IX_Locations_description", "Locations", "description", null),
+                new Index("IX_Customers_name", "Customers", "name", null),
+                new Index("IX_Packages_trackingcode", "Packages", "trackingcode", null),
+                new Index("IX_Packages_customer_id", "Packages", "customer_id", "trackingcode"),
+                new Index("IX_Events_package_id", "Events", "package_id, timestamp", "location_id, description"),
+                new Index("IX_Events_location_id_timestamp", "Events", "location_id, timestamp", "package_id, description"));
+    }
+
+    /**
+     * Inserts an event resolving the package and location from their names in the same statement.
+     * Parameters are description, tracking code and location; the result has one (package_id, location_id)
+     * row for the inserted event, or no rows when either name is unknown.
+     */
+    public abstract String AddEventByNames();
+
+    /** Statements run before and after the bulk stages of the performance test. */
+    public List<String> BulkSessionStart() {
+        return List.of();
+    }
+
+    public List<String> BulkSessionEnd() {
+        return List.of();
+    }
+
+    // Inserts only when the row is missing, so an update count of 0 means it already existed.
+    public String AddLocation() {
+        return "INSERT INTO Locations(description) SELECT CAST(? AS varchar(255)) "
+                + "WHERE NOT EXISTS(SELECT * FROM Locations WHERE description=?)";
+    }
+
+    public String AddCustomer() {
+        return "INSERT INTO Customers(name) SELECT CAST(? AS varchar(255)) "
+                + "WHERE NOT EXISTS(SELECT * FROM Customers WHERE name=?)";
+    }
+
+    public String AddPackage() {
+        return "INSERT INTO Packages(trackingcode, customer_id) SELECT CAST(? AS varchar(255)), CAST(? AS int) "
+                + "WHERE NOT EXISTS(SELECT * FROM Packages WHERE trackingcode=?)";
+    }
+
+    public String AddEvent() {
+        return "INSERT INTO Events(package_id, location_id, description) VALUES (?, ?, ?)";
+    }
+
+    /** Largest number of rows a single multi-row VALUES insert may carry. */
+    public int MaxValuesRows(int parametersPerRow) {
+        return 1000;
+    }
+
+    public String InsertEventsWithTimestamps(int rows) {
+        StringBuilder sql = new StringBuilder("INSERT INTO Events(timestamp, package_id, location_id, description) VALUES ");
+
+        for (int i = 0; i < rows; i++) {
+            sql.append(i == 0 ? "(?, ?, ?, ?)" : ", (?, ?, ?, ?)");
+        }
+
+        return sql.toString();
+    }
+
+    public String FindLocationsIn(int count) {
+        return "SELECT id, description FROM Locations WHERE description IN (" + Placeholders(count) + ")";
+    }
+
+    public String FindPackagesIn(int count) {
+        return "SELECT id, trackingcode FROM Packages WHERE trackingcode IN (" + Placeholders(count) + ")";
+    }
+
+    protected static String Placeholders(int count) {
+        return "?" + ", ?".repeat(Math.max(0, count - 1));
+    }
+
+    public String FindLocation() {
+        return "SELECT id FROM Locations WHERE description=?";
+    }
+
+    public String FindCustomer() {
+        return "SELECT id FROM Customers WHERE name=?";
+    }
+
+    public String FindPackage() {
+        return "SELECT id FROM Packages WHERE trackingcode=?";
+    }
+
+    public String AllLocationIds() {
+        return "SELECT id, description FROM Locations";
+    }
+
+    public String AllCustomerIds() {
+        return "SELECT id, name FROM Customers";
+    }
+
+    public String AllPackageIds() {
+        return "SELECT id, trackingcode FROM Packages";
+    }
+
+    /** The package's events in Events and EventsArchive. Parameters are the package id, twice. */
+    public String EventsForPackage() {
+        return "SELECT " + EVENT_COLUMNS + " FROM Events WHERE package_id=? "
+                + "UNION ALL SELECT " + EVENT_COLUMNS + " FROM EventsArchive WHERE package_id=? "
+                + "ORDER BY timestamp, id";
+    }
+
+    /** Number of events, oldest timestamp and highest id over Events and EventsArchive, for sizing a snapshot. */
+    public String SnapshotBounds() {
+        return "SELECT COUNT(*), MIN(timestamp), MAX(id) FROM "
+                + "(SELECT id, timestamp FROM Events UNION ALL SELECT id, timestamp FROM EventsArchive) e";
+    }
+
+    /** Events and archived events up to an id, in id order. Parameters are the highest id, twice. */
+    public String SnapshotEvents() {
+        return "SELECT " + EVENT_COLUMNS + " FROM Events WHERE id <= ? "
+                + "UNION ALL SELECT " + EVENT_COLUMNS + " FROM EventsArchive WHERE id <= ? "
+                + "ORDER BY id";
+    }
+
+    /** Lowest and highest event id over Events and EventsArchive; archived events keep their ids. */
+    public String EventIdRange() {
+        return "SELECT MIN(low), MAX(high) FROM "
+                + "(SELECT MIN(id) AS low, MAX(id) AS high FROM Events UNION ALL SELECT MIN(id), MAX(id) FROM EventsArchive) e";
+    }
+
+    /**
+     * The columns the report counts, for ids from <= id < to in Events and EventsArchive. Parameters are from
+     * and to, twice.
+     */
+    public String ReportEvents() {
+        return "SELECT timestamp, package_id, location_id FROM Events WHERE id >= ? AND id < ? "
+                + "UNION ALL SELECT timestamp, package_id, location_id FROM EventsArchive WHERE id >= ? AND id < ?";
+    }
+
+    public String SnapshotPackages() {
+        return "SELECT id, customer_id, trackingcode FROM Packages";
+    }
+
+    /**
+     * Events and archived events with from <= timestamp < to, optionally for one location and/or package. The
+     * timestamp column is compared as is, so each table can seek on its (location_id, timestamp) or
+     * (package_id, timestamp) index. Parameters are location id and package id when filtered on, then from and
+     * to; all of them twice, for Events and then EventsArchive.
+     */
+    public String EventsInRange(boolean byLocation, boolean byPackage) {
+        String where = (byLocation ? "location_id = ? AND " : "")
+                + (byPackage ? "package_id = ? AND " : "")
+                + "timestamp >= ? AND timestamp < ?";
+
+        return "SELECT " + EVENT_COLUMNS + " FROM Events WHERE " + where
+                + " UNION ALL SELECT " + EVENT_COLUMNS + " FROM EventsArchive WHERE " + where
+                + " ORDER BY timestamp, id";
+    }
+
+    /**
+     * One page of events and archived events, newest first by (timestamp, id). With afterKey only rows older
+     * than the last key of the previous page are read, so every page is an index seek no matter how deep it is;
+     * each table is cut to the page size before the two are merged. Parameters are location id, package id, from
+     * and to when used, then the key as timestamp, timestamp, id, then the page size; all of them once for Events,
+     * once for EventsArchive, and then the page size once more.
+     */
+    public String EventsPage(boolean byLocation, boolean byPackage, boolean inRange, boolean afterKey) {
+        String where = " WHERE 1=1"
+                + (byLocation ? " AND location_id = ?" : "")
+                + (byPackage ? " AND package_id = ?" : "")
+                + (inRange ? " AND timestamp >= ? AND timestamp < ?" : "")
+                + (afterKey ? " AND timestamp <= ? AND (timestamp < ? OR id < ?)" : "")
+                + " ORDER BY timestamp DESC, id DESC OFFSET 0 ROWS FETCH NEXT ? ROWS ONLY";
+
+        return "SELECT " + EVENT_COLUMNS + " FROM (SELECT " + EVENT_COLUMNS + " FROM Events" + where + ") e "
+                + "UNION ALL SELECT " + EVENT_COLUMNS + " FROM (SELECT " + EVENT_COLUMNS + " FROM EventsArchive" + where + ") a "
+                + "ORDER BY timestamp DESC, id DESC OFFSET 0 ROWS FETCH NEXT ? ROWS ONLY";
+    }
+
+    /** Reads the maintained counters, so the cost does not grow with the number of events. */
+    public String PackagesForCustomerWithEventCounts() {
+        return "SELECT p.trackingcode, p.event_count, p.last_event_at, l.description "
+                + "FROM Packages p LEFT JOIN Locations l ON l.id = p.last_location_id "
+                + "WHERE p.customer_id = ? AND p.event_count > 0";
+    }
+
+    /** Fails when Packages has no event counters yet, i.e. the schema predates them. */
+    public String ProbePackageCounters() {
+        return "SELECT event_count FROM Packages WHERE 1 = 0";
+    }
+
+    /** Recomputes every package's counters from Events, for a schema whose counters were just added. */
+    public String RebuildPackageCounters() {
+        return "UPDATE Packages SET "
+                + "event_count = (SELECT count(*) FROM Events e WHERE e.package_id = Packages.id), "
+                + "last_event_at = (SELECT max(e.timestamp) FROM Events e WHERE e.package_id = Packages.id), "
+                + "last_location_id = (SELECT e.location_id FROM Events e WHERE e.package_id = Packages.id "
+                + "ORDER BY e.timestamp DESC, e.id DESC OFFSET 0 ROWS FETCH NEXT 1 ROWS ONLY)";
+    }
+
+    /**
+     * Adds one event to its package's counters; the latest event by (timestamp, id) sets the last location.
+     * Parameters are timestamp, location id, timestamp, timestamp and package id. Run by the H2 trigger.
+     */
+    public static String UpdatePackageCounters() {
+        return "UPDATE Packages SET event_count = event_count + 1, "
+                + "last_location_id = CASE WHEN last_event_at IS NULL OR last_event_at <= ? THEN ? ELSE last_location_id END, "
+                + "last_event_at = CASE WHEN last_event_at IS NULL OR last_event_at <= ? THEN ? ELSE last_event_at END "
+                + "WHERE id = ?";
+    }
+
+    public String InsertLocation() {
+        return "INSERT INTO Locations (description) VALUES (?)";
+    }
+
+    public String InsertCustomer() {
+        return "INSERT INTO Customers (name) VALUES (?)";
+    }
+
+    public String InsertPackage() {
+        return "INSERT INTO Packages (trackingcode, customer_id) VALUES (?, ?)";
+    }
+
+    public String CountPackagesForCustomer() {
+        return "SELECT count(id) FROM Packages WHERE customer_id = ?";
+    }
+
+    public String CountEventsForPackage() {
+        return "SELECT event_count FROM Packages WHERE id = ?";
+    }
+}
@@ -0,0 +1,6 @@
+package at.koodi;
+
+import java.sql.Timestamp;
+
+public record Event(long id, Timestamp timestamp, int packageId, int locationId, String description) {
+}
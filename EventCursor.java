@@ -0,0 +1,75 @@
+package at.koodi;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Forward-only iterator over the rows of an event query. Rows are read from the open result set as they are
+ * consumed, so only the driver's current fetch block is held in memory. The cursor keeps the connection's
+ * cached statement busy: close it before running the same query on the connection again.
+ */
+public class EventCursor implements Iterator<Event>, AutoCloseable {
+    private final ResultSet resultSet;
+
+    private Event next;
+    private boolean done = false;
+
+    EventCursor(ResultSet resultSet) {
+        this.resultSet = resultSet;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !done) {
+            try {
+                if (resultSet.next()) {
+                    next = Read(resultSet);
+                } else {
+                    close();
+                }
+            } catch (SQLException e) {
+                close();
+                throw new IllegalStateException("Reading events failed", e);
+            }
+        }
+
+        return next != null;
+    }
+
+    @Override
+    public Event next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        Event event = next;
+        next = null;
+
+        return event;
+    }
+
+    @Override
+    public void close() {
+        if (!done) {
+            done = true;
+
+            try {
+                resultSet.close();
+            } catch (SQLException e) {
+                // Nothing more will be read from it.
+            }
+        }
+    }
+
+    // Columns in the order of Dialect.EVENT_COLUMNS, read by position to skip the name lookups.
+    static Event Read(ResultSet resultSet) throws SQLException {
+        return new Event(
+                resultSet.getLong(1),
+                resultSet.getTimestamp(2),
+                resultSet.getInt(3),
+                resultSet.getInt(4),
+                resultSet.getString(5));
+    }
+}
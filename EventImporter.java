@@ -0,0 +1,467 @@
+package at.koodi;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Streams events from a CSV or JSONL file into the Events table.
+ *
+ * CSV rows are {@code location,trackingcode,description,timestamp}; a header line is skipped.
+ * JSONL rows are objects with the keys {@code location}, {@code trackingcode}, {@code description}
+ * and {@code timestamp}. The timestamp is ISO-8601 ({@code 2020-05-01T12:30:00} or with a space)
+ * and may be left empty to use the import time.
+ *
+ * Rows are read in chunks of one transaction. The names in a chunk that are not in the lookup caches
+ * are resolved with IN queries, then the rows are written with multi-row VALUES statements sent in
+ * JDBC batches and committed together.
+ *
+ * Every statement has one of a few fixed shapes, so the statement cache and the server's plan cache are
+ * not filled with one-off sizes: IN lists are padded to a power of two by repeating their last name, and
+ * the rows that do not fill a VALUES statement are sent as a batch of single-row inserts.
+ */
+public class EventImporter {
+    private record Row(String location, String trackingCode, String description, Timestamp timestamp) {
+    }
+
+    public record Result(long read, long inserted, long skipped, long malformed, long elapsedMillis) {
+        public double RowsPerSecond() {
+            return elapsedMillis == 0 ? inserted : inserted * 1000.0 / elapsedMillis;
+        }
+    }
+
+    private static final int LOOKUP_CHUNK = 512;
+
+    private final Dialect dialect;
+    private final IdCache locationIds;
+    private final IdCache packageIds;
+    private final TimelineCache timelines;
+    private final int valuesRows;
+    private final int batchSize;
+    private final int transactionSize;
+
+    public EventImporter(Dialect dialect, IdCache locationIds, IdCache packageIds, TimelineCache timelines, Settings settings) {
+        this.dialect = dialect;
+        this.locationIds = locationIds;
+        this.packageIds = packageIds;
+        this.timelines = timelines;
+        this.valuesRows = Math.max(1, Math.min(settings.GetInt("import.valuesRows", 100), dialect.MaxValuesRows(4)));
+        this.batchSize = Math.max(1, settings.GetInt("import.batchSize", 10));
+        this.transactionSize = Math.max(valuesRows, settings.GetInt("import.transactionSize", 10000));
+    }
+
+    public Result Import(PooledConnection connection, Path file) throws IOException, SQLException {
+        boolean json = file.getFileName().toString().toLowerCase().endsWith(".jsonl");
+
+        long read = 0;
+        long inserted = 0;
+        long skipped = 0;
+        long malformed = 0;
+
+        Connection raw = connection.Connection();
+        raw.setAutoCommit(false);
+
+        var startTime = System.currentTimeMillis();
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            List<Row> chunk = new ArrayList<>(transactionSize);
+            String line;
+            boolean first = true;
+
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                if (first && !json && line.toLowerCase().startsWith("location,")) {
+                    first = false;
+
+                    continue;
+                }
+
+                first = false;
+
+                Row row = json ? ParseJsonRow(line) : ParseCsvRow(line);
+
+                if (row == null) {
+                    malformed++;
+
+                    continue;
+                }
+
+                read++;
+                chunk.add(row);
+
+                if (chunk.size() >= transactionSize) {
+                    int written = WriteChunk(connection, chunk);
+                    inserted += written;
+                    skipped += chunk.size() - written;
+                    chunk.clear();
+                }
+            }
+
+            if (!chunk.isEmpty()) {
+                int written = WriteChunk(connection, chunk);
+                inserted += written;
+                skipped += chunk.size() - written;
+            }
+        } catch (IOException | SQLException | RuntimeException e) {
+            raw.rollback();
+
+            throw e;
+        } finally {
+            raw.setAutoCommit(true);
+        }
+
+        return new Result(read, inserted, skipped, malformed, System.currentTimeMillis() - startTime);
+    }
+
+    // Writes one transaction worth of rows and returns how many were inserted.
+    private int WriteChunk(PooledConnection connection, List<Row> chunk) throws SQLException {
+        Set<String> locations = new LinkedHashSet<>();
+        Set<String> codes = new LinkedHashSet<>();
+
+        for (Row row : chunk) {
+            if (locationIds.Get(row.location()) == null) {
+                locations.add(row.location());
+            }
+
+            if (packageIds.Get(row.trackingCode()) == null) {
+                codes.add(row.trackingCode());
+            }
+        }
+
+        ResolveAll(connection, locationIds, locations, dialect::FindLocationsIn);
+        ResolveAll(connection, packageIds, codes, dialect::FindPackagesIn);
+
+        List<int[]> keys = new ArrayList<>(chunk.size());
+        List<Row> rows = new ArrayList<>(chunk.size());
+
+        for (Row row : chunk) {
+            Integer locationId = locationIds.Get(row.location());
+            Integer packageId = packageIds.Get(row.trackingCode());
+
+            if (locationId != null && packageId != null) {
+                keys.add(new int[] {packageId, locationId});
+                rows.add(row);
+            }
+        }
+
+        PreparedStatement full = connection.Prepare(dialect.InsertEventsWithTimestamps(valuesRows));
+        int pending = 0;
+        int index = 0;
+
+        for (; index + valuesRows <= rows.size(); index += valuesRows) {
+            for (int r = 0; r < valuesRows; r++) {
+                Bind(full, r, rows.get(index + r), keys.get(index + r));
+            }
+
+            full.addBatch();
+
+            if (++pending >= batchSize) {
+                full.executeBatch();
+                pending = 0;
+            }
+        }
+
+        if (pending > 0) {
+            full.executeBatch();
+        }
+
+        if (index < rows.size()) {
+            PreparedStatement single = connection.Prepare(dialect.InsertEventsWithTimestamps(1));
+
+            for (; index < rows.size(); index++) {
+                Bind(single, 0, rows.get(index), keys.get(index));
+                single.addBatch();
+            }
+
+            single.executeBatch();
+        }
+
+        connection.Connection().commit();
+
+        // After the commit, so a timeline read in between cannot be cached without the new rows.
+        Set<Integer> touched = new HashSet<>();
+
+        for (int[] key : keys) {
+            if (touched.add(key[0])) {
+                timelines.Invalidate(key[0]);
+            }
+        }
+
+        return rows.size();
+    }
+
+    private static void Bind(PreparedStatement statement, int row, Row values, int[] key) throws SQLException {
+        int offset = row * 4;
+
+        statement.setTimestamp(offset + 1, values.timestamp());
+        statement.setInt(offset + 2, key[0]);
+        statement.setInt(offset + 3, key[1]);
+        statement.setString(offset + 4, values.description());
+    }
+
+    private interface InQuery {
+        String Sql(int parameters);
+    }
+
+    private static void ResolveAll(PooledConnection connection, IdCache cache, Set<String> names, InQuery query) throws SQLException {
+        List<String> pending = new ArrayList<>(names);
+
+        for (int start = 0; start < pending.size(); start += LOOKUP_CHUNK) {
+            List<String> part = pending.subList(start, Math.min(pending.size(), start + LOOKUP_CHUNK));
+            int parameters = Integer.highestOneBit(part.size() * 2 - 1);
+
+            PreparedStatement statement = connection.Prepare(query.Sql(parameters));
+
+            for (int i = 0; i < parameters; i++) {
+                statement.setString(i + 1, part.get(Math.min(i, part.size() - 1)));
+            }
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    cache.Put(resultSet.getString(2), resultSet.getInt(1));
+                }
+            }
+        }
+    }
+
+    private static Row ParseCsvRow(String line) {
+        List<String> fields = new ArrayList<>(4);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+
+        fields.add(field.toString());
+
+        if (fields.size() < 3) {
+            return null;
+        }
+
+        return ToRow(fields.get(0), fields.get(1), fields.get(2), fields.size() > 3 ? fields.get(3) : null);
+    }
+
+    private static Row ParseJsonRow(String line) {
+        Map<String, String> values = ParseFlatJson(line);
+
+        if (values == null) {
+            return null;
+        }
+
+        String trackingCode = values.containsKey("trackingcode") ? values.get("trackingcode") : values.get("trackingCode");
+
+        return ToRow(values.get("location"), trackingCode, values.get("description"), values.get("timestamp"));
+    }
+
+    private static Row ToRow(String location, String trackingCode, String description, String timestamp) {
+        if (location == null || location.isBlank()
+                || trackingCode == null || trackingCode.isBlank()
+                || description == null || description.isBlank()) {
+            return null;
+        }
+
+        Timestamp parsed;
+
+        if (timestamp == null || timestamp.isBlank()) {
+            parsed = new Timestamp(System.currentTimeMillis());
+        } else {
+            try {
+                parsed = Timestamp.valueOf(LocalDateTime.parse(timestamp.trim().replace(' ', 'T')));
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+
+        return new Row(location.trim(), trackingCode.trim(), description.trim(), parsed);
+    }
+
+    // Parses one JSON object whose values are strings, numbers, booleans or null. Nested values are not supported.
+    static Map<String, String> ParseFlatJson(String line) {
+        Map<String, String> values = new HashMap<>();
+        int[] position = {SkipWhitespace(line, 0)};
+
+        if (position[0] >= line.length() || line.charAt(position[0]) != '{') {
+            return null;
+        }
+
+        position[0] = SkipWhitespace(line, position[0] + 1);
+
+        if (position[0] < line.length() && line.charAt(position[0]) == '}') {
+            return values;
+        }
+
+        while (position[0] < line.length()) {
+            String key = ReadJsonString(line, position);
+
+            if (key == null) {
+                return null;
+            }
+
+            position[0] = SkipWhitespace(line, position[0]);
+
+            if (position[0] >= line.length() || line.charAt(position[0]) != ':') {
+                return null;
+            }
+
+            position[0] = SkipWhitespace(line, position[0] + 1);
+
+            String value;
+
+            if (position[0] < line.length() && line.charAt(position[0]) == '"') {
+                value = ReadJsonString(line, position);
+
+                if (value == null) {
+                    return null;
+                }
+            } else {
+                int start = position[0];
+
+                while (position[0] < line.length() && ",} \t".indexOf(line.charAt(position[0])) < 0) {
+                    position[0]++;
+                }
+
+                value = line.substring(start, position[0]);
+
+                if (value.equals("null")) {
+                    value = null;
+                }
+            }
+
+            values.put(key, value);
+
+            position[0] = SkipWhitespace(line, position[0]);
+
+            if (position[0] >= line.length()) {
+                return null;
+            }
+
+            char c = line.charAt(position[0]);
+
+            if (c == '}') {
+                return values;
+            }
+
+            if (c != ',') {
+                return null;
+            }
+
+            position[0] = SkipWhitespace(line, position[0] + 1);
+        }
+
+        return null;
+    }
+
+    private static String ReadJsonString(String line, int[] position) {
+        int i = position[0];
+
+        if (i >= line.length() || line.charAt(i) != '"') {
+            return null;
+        }
+
+        StringBuilder value = new StringBuilder();
+
+        for (i++; i < line.length(); i++) {
+            char c = line.charAt(i);
+
+            if (c == '"') {
+                position[0] = i + 1;
+
+                return value.toString();
+            }
+
+            if (c != '\\') {
+                value.append(c);
+
+                continue;
+            }
+
+            if (++i >= line.length()) {
+                return null;
+            }
+
+            char escaped = line.charAt(i);
+
+            switch (escaped) {
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'u':
+                    if (i + 4 >= line.length()) {
+                        return null;
+                    }
+
+                    try {
+                        value.append((char) Integer.parseInt(line.substring(i + 1, i + 5), 16));
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+
+                    i += 4;
+                    break;
+                default:
+                    value.append(escaped);
+                    break;
+            }
+        }
+
+        return null;
+    }
+
+    private static int SkipWhitespace(String line, int position) {
+        while (position < line.length() && Character.isWhitespace(line.charAt(position))) {
+            position++;
+        }
+
+        return position;
+    }
+}
@@ -0,0 +1,263 @@
+package at.koodi;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write-behind event ingestion with group commit. Callers enqueue events and get a future; one writer thread
+ * drains the queue into JDBC batches of up to ingest.maxBatch events, waiting at most ingest.lingerMs for a
+ * batch to fill, and commits each batch in one transaction. The futures complete once their batch has
+ * committed, so a completed future means the event is durable. The queue holds ingest.queueSize events;
+ * when it is full, Submit blocks until the writer catches up.
+ *
+ * An event is timestamped when it is submitted, not when its batch is written. Closing waits for the queued
+ * events to be written; once the writer has stopped, for whatever reason, every future still pending fails.
+ */
+public class EventIngester implements AutoCloseable {
+    private record Pending(String location, String trackingCode, String description, Timestamp timestamp,
+                           CompletableFuture<EventResult> result) {
+    }
+
+    private final ConnectionPool pool;
+    private final Tracker tracker;
+    private final int maxBatch;
+    private final long lingerNanos;
+    private final BlockingQueue<Pending> queue;
+    private final Thread writer;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+
+    // Submitters enqueue under the read lock and close() sets closed under the write lock, so no event is
+    // queued after the writer has seen closed and an empty queue.
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile boolean closed = false;
+
+    public EventIngester(ConnectionPool pool, Tracker tracker, Settings settings) {
+        this.pool = pool;
+        this.tracker = tracker;
+        this.maxBatch = Math.max(1, settings.GetInt("ingest.maxBatch", 500));
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, settings.GetLong("ingest.lingerMs", 5)));
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, settings.GetInt("ingest.queueSize", 10000)));
+        this.writer = new Thread(this::WriteLoop, "event-ingester");
+
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** Queues an event, blocking while the queue is full. */
+    public CompletableFuture<EventResult> Submit(String location, String trackingCode, String description) throws InterruptedException {
+        var result = new CompletableFuture<EventResult>();
+        var event = new Pending(location, trackingCode, description, new Timestamp(System.currentTimeMillis()), result);
+
+        // Waits in short steps, so a full queue does not keep close() from taking the write lock.
+        while (true) {
+            lock.readLock().lock();
+
+            try {
+                if (closed) {
+                    throw new IllegalStateException("The ingester is closed");
+                }
+
+                if (queue.offer(event, 100, TimeUnit.MILLISECONDS)) {
+                    return result;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    /** Queues an event and waits until its batch has committed. */
+    public EventResult Add(String location, String trackingCode, String description) throws SQLException {
+        try {
+            return Submit(location, trackingCode, description).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException cause) {
+                throw cause;
+            }
+
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new SQLException("Interrupted while waiting for the event to be written", e);
+        }
+    }
+
+    public String Stats() {
+        long batchCount = batches.get();
+
+        return "Ingester: " + written.get() + " events in " + batchCount + " batches ("
+                + (batchCount == 0 ? 0 : written.get() / batchCount) + " per batch), " + queue.size() + " queued";
+    }
+
+    /** Stops taking events and returns once everything already queued is written. */
+    @Override
+    public void close() {
+        Shutdown();
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void Shutdown() {
+        lock.writeLock().lock();
+
+        try {
+            closed = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void WriteLoop() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+
+        try {
+            WriteUntilClosed(batch);
+        } finally {
+            Shutdown();
+            queue.drainTo(batch);
+
+            var stopped = new SQLException("The ingester stopped before the event was written");
+
+            for (Pending event : batch) {
+                event.result().completeExceptionally(stopped);
+            }
+        }
+    }
+
+    private void WriteUntilClosed(List<Pending> batch) {
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+
+                long lingerUntil = System.nanoTime() + lingerNanos;
+
+                while (batch.size() < maxBatch) {
+                    queue.drainTo(batch, maxBatch - batch.size());
+
+                    long wait = lingerUntil - System.nanoTime();
+
+                    if (batch.size() >= maxBatch || wait <= 0) {
+                        break;
+                    }
+
+                    Pending next = queue.poll(wait, TimeUnit.NANOSECONDS);
+
+                    if (next == null) {
+                        break;
+                    }
+
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Stops without writing the batch in hand: an interrupt during I/O makes H2 close its file.
+                Thread.currentThread().interrupt();
+
+                return;
+            }
+
+            if (!batch.isEmpty()) {
+                Write(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    // Writes one batch in one transaction and completes its futures.
+    private void Write(List<Pending> batch) {
+        try (PooledConnection connection = pool.Borrow()) {
+            List<Pending> accepted = tracker.Metrics().Measure("ingest_batch", connection, List::size, () ->
+                    WriteBatch(connection, batch));
+
+            batches.incrementAndGet();
+            written.addAndGet(accepted.size());
+
+            for (Pending event : accepted) {
+                event.result().complete(EventResult.ADDED);
+            }
+        } catch (SQLException | RuntimeException e) {
+            for (Pending event : batch) {
+                event.result().completeExceptionally(e);
+            }
+        }
+    }
+
+    // Inserts the events whose names resolve and completes the others as unknown. Returns the inserted ones.
+    private List<Pending> WriteBatch(PooledConnection connection, List<Pending> batch) throws SQLException {
+        Connection raw = connection.Connection();
+        List<Pending> accepted = new ArrayList<>(batch.size());
+        Set<Integer> packageIds = new HashSet<>();
+
+        raw.setAutoCommit(false);
+
+        try {
+            PreparedStatement statement = connection.Prepare(tracker.Dialect().InsertEventsWithTimestamps(1));
+
+            for (Pending event : batch) {
+                int locationId = tracker.LocationId(connection, event.location());
+                int packageId = tracker.PackageId(connection, event.trackingCode());
+
+                if (locationId == -1) {
+                    event.result().complete(EventResult.UNKNOWN_LOCATION);
+                } else if (packageId == -1) {
+                    event.result().complete(EventResult.UNKNOWN_PACKAGE);
+                } else {
+                    statement.setTimestamp(1, event.timestamp());
+                    statement.setInt(2, packageId);
+                    statement.setInt(3, locationId);
+                    statement.setString(4, event.description());
+                    statement.addBatch();
+
+                    accepted.add(event);
+                    packageIds.add(packageId);
+                }
+            }
+
+            if (!accepted.isEmpty()) {
+                statement.executeBatch();
+            }
+
+            raw.commit();
+        } catch (SQLException | RuntimeException e) {
+            // Before setAutoCommit(true) in the finally block, which would commit the partial batch.
+            raw.rollback();
+
+            throw e;
+        } finally {
+            raw.setAutoCommit(true);
+        }
+
+        for (int packageId : packageIds) {
+            tracker.Timelines().Invalidate(packageId);
+        }
+
+        return accepted;
+    }
+}
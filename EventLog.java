@@ -0,0 +1,651 @@
+package at.koodi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded storage engine for the operations of commands 1 to 8, without a database server. Every location,
+ * customer, package and event is a record appended to one log file, written through memory-mapped segments
+ * of log.segmentMB megabytes. The indexes live on the heap: names to ids, the event records of each package
+ * by package id, and the event records of each location and day in a {@link LongLongMap} keyed by the pair.
+ * Reads decode the events straight from the mapped log.
+ *
+ * The file starts with a header of {@value #HEADER_SIZE} bytes holding a magic number, the format version and
+ * the segment size the log was created with; that size is used from then on, and opening the log with a
+ * different log.segmentMB fails. A record is its payload length, the CRC32 of the payload, then the payload,
+ * padded to four bytes. A record that does not fit in the rest of a segment starts the next one, and a length
+ * of -1 marks the skipped tail.
+ *
+ * Opening the log replays it to rebuild the indexes and stops at the first record that is incomplete or fails
+ * its checksum. When that record is the last data in the file it is where a crash interrupted a write, and its
+ * bytes are cleared. When more data follows, the log is damaged rather than torn and opening it fails, so
+ * nothing is thrown away. Appends reach the file when the operating system writes the pages back, or at once
+ * with log.sync=true.
+ *
+ * Ids are given out from 1 in the order the rows are added, like the identity columns of the SQL schema.
+ */
+public class EventLog implements AutoCloseable {
+    private static final byte LOCATION = 1;
+    private static final byte CUSTOMER = 2;
+    private static final byte PACKAGE = 3;
+    private static final byte EVENT = 4;
+
+    private static final long MAGIC = 0x313030474F4C4B54L; // "TKLOG001"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+
+    // A segment is one mapping, and FileChannel.map takes at most Integer.MAX_VALUE bytes.
+    private static final int MAX_SEGMENT_MB = 1024;
+
+    private static final int RECORD_HEADER = 2 * Integer.BYTES;
+    private static final int SKIP = -1;
+
+    // An event with the longest description; no intact record is longer.
+    private static final int MAX_RECORD = Align(RECORD_HEADER + 1 + 4 + 8 + 4 + 4 + Short.BYTES + 0xFFFF);
+
+    private final Path file;
+    private final FileChannel channel;
+    private final int segmentBytes;
+    private final boolean sync;
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer scratch = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+
+    private long end = 0;
+    private long records = 0;
+    private long discardedBytes = 0;
+    private long recoveryMillis = 0;
+
+    // Ids start from 1, so the entry for id i is at index i - 1.
+    private final Map<String, Integer> locationIds = new HashMap<>();
+    private final List<String> locationNames = new ArrayList<>();
+    private final Map<String, Integer> customerIds = new HashMap<>();
+    private final List<IntList> customerPackages = new ArrayList<>();
+    private final Map<String, Integer> packageIds = new HashMap<>();
+    private final List<String> trackingCodes = new ArrayList<>();
+    private final List<LongList> packageEvents = new ArrayList<>();
+    private final LongList packageLastEvent = new LongList();
+
+    // (location id, epoch day) to the index of its record list in locationDayEvents.
+    private final LongLongMap locationDays = new LongLongMap();
+    private final List<LongList> locationDayEvents = new ArrayList<>();
+
+    private long events = 0;
+
+    private long day;
+    private long dayStart = Long.MAX_VALUE;
+    private long dayEnd = Long.MIN_VALUE;
+
+    public EventLog(Settings settings) throws IOException {
+        this.file = Path.of(settings.GetString("log.file", "tikape.log"));
+        this.sync = settings.GetBoolean("log.sync", false);
+
+        int segmentMB = settings.GetInt("log.segmentMB", 16);
+
+        // Checked before the file is touched, so a bad setting never ends up in the header of a new log.
+        if (segmentMB < 1 || segmentMB > MAX_SEGMENT_MB) {
+            throw new IllegalArgumentException("log.segmentMB must be from 1 to " + MAX_SEGMENT_MB + ", got " + segmentMB);
+        }
+
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            this.segmentBytes = OpenHeader(settings, segmentMB << 20);
+            Recover();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+
+            throw e;
+        }
+    }
+
+    public Path File() {
+        return file;
+    }
+
+    public synchronized long Records() {
+        return records;
+    }
+
+    public synchronized long Events() {
+        return events;
+    }
+
+    /** Bytes of the log in use, including skipped segment tails. */
+    public synchronized long Bytes() {
+        return end;
+    }
+
+    /** Bytes of a torn record at the end of the log that the replay on open cleared. */
+    public long DiscardedBytes() {
+        return discardedBytes;
+    }
+
+    public long RecoveryMillis() {
+        return recoveryMillis;
+    }
+
+    public synchronized int LocationId(String location) {
+        return locationIds.getOrDefault(location, -1);
+    }
+
+    public synchronized int CustomerId(String customer) {
+        return customerIds.getOrDefault(customer, -1);
+    }
+
+    public synchronized int PackageId(String trackingCode) {
+        return packageIds.getOrDefault(trackingCode, -1);
+    }
+
+    /** Returns false when the location already exists. */
+    public synchronized boolean AddLocation(String location) throws IOException {
+        if (locationIds.containsKey(location)) {
+            return false;
+        }
+
+        Append(Begin(LOCATION).putInt(locationNames.size() + 1), location);
+
+        return true;
+    }
+
+    /** Returns false when the customer already exists. */
+    public synchronized boolean AddCustomer(String name) throws IOException {
+        if (customerIds.containsKey(name)) {
+            return false;
+        }
+
+        Append(Begin(CUSTOMER).putInt(customerPackages.size() + 1), name);
+
+        return true;
+    }
+
+    /** Returns false when a package with the code already exists. */
+    public synchronized boolean AddPackage(String trackingCode, int customerId) throws IOException {
+        if (customerId < 1 || customerId > customerPackages.size()) {
+            throw new IllegalArgumentException("Unknown customer id " + customerId);
+        }
+
+        if (packageIds.containsKey(trackingCode)) {
+            return false;
+        }
+
+        Append(Begin(PACKAGE).putInt(trackingCodes.size() + 1).putInt(customerId), trackingCode);
+
+        return true;
+    }
+
+    /** Adds an event at the current time. */
+    public synchronized EventResult AddEvent(String location, String trackingCode, String description) throws IOException {
+        int locationId = LocationId(location);
+
+        if (locationId == -1) {
+            return EventResult.UNKNOWN_LOCATION;
+        }
+
+        int packageId = PackageId(trackingCode);
+
+        if (packageId == -1) {
+            return EventResult.UNKNOWN_PACKAGE;
+        }
+
+        Append(Begin(EVENT)
+                .putInt((int) events + 1)
+                .putLong(System.currentTimeMillis())
+                .putInt(packageId)
+                .putInt(locationId), description);
+
+        return EventResult.ADDED;
+    }
+
+    /** The package's events, oldest first. */
+    public synchronized List<Event> EventsForPackage(int packageId) {
+        if (packageId < 1 || packageId > packageEvents.size()) {
+            return List.of();
+        }
+
+        return ReadEvents(packageEvents.get(packageId - 1));
+    }
+
+    /** The customer's packages that have events, with the count and the last event kept in the index. */
+    public synchronized List<PackageEventCount> PackagesForCustomerWithEventCounts(int customerId) {
+        if (customerId < 1 || customerId > customerPackages.size()) {
+            return List.of();
+        }
+
+        IntList packages = customerPackages.get(customerId - 1);
+        List<PackageEventCount> result = new ArrayList<>();
+
+        for (int i = 0; i < packages.Size(); i++) {
+            int packageId = packages.Get(i);
+            long last = packageLastEvent.Get(packageId - 1);
+
+            if (last >= 0) {
+                Event event = ReadEvent(last);
+
+                result.add(new PackageEventCount(
+                        trackingCodes.get(packageId - 1),
+                        packageEvents.get(packageId - 1).Size(),
+                        event.timestamp(),
+                        locationNames.get(event.locationId() - 1)));
+            }
+        }
+
+        return result;
+    }
+
+    /** The location's events on the day, oldest first. */
+    public synchronized List<Event> EventsForLocationOnDay(int locationId, LocalDate day) {
+        long index = locationDays.Get(LongLongMap.Key(locationId, (int) day.toEpochDay()), -1);
+
+        return index < 0 ? List.of() : ReadEvents(locationDayEvents.get((int) index));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+
+        channel.close();
+    }
+
+    private ByteBuffer Begin(byte type) {
+        scratch.clear();
+
+        return scratch.put(type);
+    }
+
+    // Ends the payload with the string, writes the record at the end of the log and adds it to the indexes.
+    private void Append(ByteBuffer payload, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Text longer than 65535 bytes");
+        }
+
+        if (payload.remaining() < Short.BYTES + bytes.length) {
+            scratch = ByteBuffer.allocate(payload.position() + Short.BYTES + bytes.length).order(ByteOrder.LITTLE_ENDIAN).put(payload.flip());
+            payload = scratch;
+        }
+
+        payload.putShort((short) bytes.length).put(bytes).flip();
+
+        int length = payload.remaining();
+        int size = Align(RECORD_HEADER + length);
+
+        if (size > segmentBytes) {
+            throw new IllegalArgumentException("Record of " + size + " bytes does not fit in a log segment");
+        }
+
+        int offset = (int) (end % segmentBytes);
+
+        if (offset + size > segmentBytes) {
+            MappedByteBuffer full = Segment(end);
+            full.putInt(offset, SKIP);
+
+            if (sync) {
+                full.force(offset, Integer.BYTES);
+            }
+
+            end += segmentBytes - offset;
+            offset = 0;
+        }
+
+        MappedByteBuffer segment = Segment(end);
+
+        crc.reset();
+        crc.update(payload.duplicate());
+
+        segment.putInt(offset + Integer.BYTES, (int) crc.getValue());
+        segment.put(offset + RECORD_HEADER, payload.duplicate(), 0, length);
+        segment.putInt(offset, length);
+
+        if (sync) {
+            segment.force(offset, size);
+        }
+
+        Apply(end, payload);
+
+        end += size;
+        records++;
+    }
+
+    // Writes the header of a new log, or checks the one of an existing log; returns the segment size in bytes.
+    private int OpenHeader(Settings settings, int configuredBytes) throws IOException {
+        String configured = settings.GetString("log.segmentMB", "");
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        if (channel.size() == 0) {
+            header.putLong(MAGIC).putInt(VERSION).putInt(configuredBytes).clear();
+            channel.write(header, 0);
+            channel.force(true);
+
+            return configuredBytes;
+        }
+
+        if (channel.size() < HEADER_SIZE || channel.read(header, 0) < HEADER_SIZE || header.flip().getLong() != MAGIC) {
+            throw new IOException(file + " is not an event log");
+        }
+
+        int version = header.getInt();
+
+        if (version != VERSION) {
+            throw new IOException(file + " has event log version " + version + ", expected " + VERSION);
+        }
+
+        int stored = header.getInt();
+
+        if (stored <= 0 || stored > MAX_SEGMENT_MB << 20 || stored % Integer.BYTES != 0) {
+            throw new IOException(file + " has an invalid segment size " + stored);
+        }
+
+        if (!configured.isEmpty() && configuredBytes != stored) {
+            throw new IOException(
+                    file + " was created with log.segmentMB=" + (stored >> 20)
+                    + " but log.segmentMB is " + (configuredBytes >> 20) + "; remove the setting or set it back");
+        }
+
+        return stored;
+    }
+
+    // The segment holding the position, mapping a new one at the end of the file when needed.
+    private MappedByteBuffer Segment(long position) throws IOException {
+        int index = (int) (position / segmentBytes);
+
+        while (segments.size() <= index) {
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + (long) segments.size() * segmentBytes, segmentBytes);
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            segments.add(segment);
+        }
+
+        return segments.get(index);
+    }
+
+    // Replays the intact prefix of the log into the indexes and clears a torn record at its end.
+    private void Recover() throws IOException {
+        long startTime = System.currentTimeMillis();
+        long size = channel.size() - HEADER_SIZE;
+
+        while ((long) segments.size() * segmentBytes < size) {
+            Segment((long) segments.size() * segmentBytes);
+        }
+
+        while (end < size) {
+            MappedByteBuffer segment = Segment(end);
+            int offset = (int) (end % segmentBytes);
+            int length = segment.getInt(offset);
+
+            if (length == SKIP) {
+                end += segmentBytes - offset;
+
+                continue;
+            }
+
+            if (length <= 0 || length > segmentBytes - offset - RECORD_HEADER) {
+                break;
+            }
+
+            ByteBuffer payload = segment.slice(offset + RECORD_HEADER, length).order(ByteOrder.LITTLE_ENDIAN);
+
+            crc.reset();
+            crc.update(payload.duplicate());
+
+            if ((int) crc.getValue() != segment.getInt(offset + Integer.BYTES) || !Apply(end, payload)) {
+                break;
+            }
+
+            end += Align(RECORD_HEADER + length);
+            records++;
+        }
+
+        if (end < size) {
+            int index = (int) (end / segmentBytes);
+            int offset = (int) (end % segmentBytes);
+            MappedByteBuffer segment = Segment(end);
+            int used = UsedTo(segment, offset);
+            boolean dataAfter = used - offset > MAX_RECORD;
+
+            for (int i = index + 1; i < segments.size() && !dataAfter; i++) {
+                dataAfter = UsedTo(segments.get(i), 0) > 0;
+            }
+
+            if (dataAfter) {
+                throw new IOException(
+                        file + " has a damaged record at byte " + (HEADER_SIZE + end)
+                        + " with more data after it; not opening it, so nothing is discarded");
+            }
+
+            // Clear the torn record so a later replay cannot mistake its bytes for records.
+            for (int i = offset; i < used; i += Integer.BYTES) {
+                segment.putInt(i, 0);
+            }
+
+            if (used > offset) {
+                discardedBytes = used - offset;
+                segment.force();
+            }
+        }
+
+        recoveryMillis = System.currentTimeMillis() - startTime;
+    }
+
+    // Adds a record to the indexes. Returns false for a record that does not fit them, which ends the replay.
+    private boolean Apply(long position, ByteBuffer payload) {
+        ByteBuffer record = payload.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+        switch (record.get()) {
+            case LOCATION: {
+                if (record.getInt() != locationNames.size() + 1) {
+                    return false;
+                }
+
+                String name = ReadString(record);
+
+                locationIds.put(name, locationNames.size() + 1);
+                locationNames.add(name);
+
+                return true;
+            }
+            case CUSTOMER: {
+                if (record.getInt() != customerPackages.size() + 1) {
+                    return false;
+                }
+
+                customerIds.put(ReadString(record), customerPackages.size() + 1);
+                customerPackages.add(new IntList());
+
+                return true;
+            }
+            case PACKAGE: {
+                int id = record.getInt();
+                int customerId = record.getInt();
+
+                if (id != trackingCodes.size() + 1 || customerId < 1 || customerId > customerPackages.size()) {
+                    return false;
+                }
+
+                String trackingCode = ReadString(record);
+
+                packageIds.put(trackingCode, id);
+                trackingCodes.add(trackingCode);
+                packageEvents.add(new LongList());
+                packageLastEvent.Add(-1);
+                customerPackages.get(customerId - 1).Add(id);
+
+                return true;
+            }
+            case EVENT: {
+                int id = record.getInt();
+                long millis = record.getLong();
+                int packageId = record.getInt();
+                int locationId = record.getInt();
+
+                if (id != events + 1
+                        || packageId < 1 || packageId > packageEvents.size()
+                        || locationId < 1 || locationId > locationNames.size()) {
+                    return false;
+                }
+
+                long last = packageLastEvent.Get(packageId - 1);
+
+                // The latest event by (timestamp, id); ids only grow, so a tie goes to the new one.
+                if (last < 0 || millis >= ReadMillis(last)) {
+                    packageLastEvent.Set(packageId - 1, position);
+                }
+
+                packageEvents.get(packageId - 1).Add(position);
+
+                long key = LongLongMap.Key(locationId, (int) Day(millis));
+                long index = locationDays.Get(key, -1);
+
+                if (index < 0) {
+                    index = locationDayEvents.size();
+                    locationDays.Put(key, index);
+                    locationDayEvents.add(new LongList());
+                }
+
+                locationDayEvents.get((int) index).Add(position);
+                events++;
+
+                return true;
+            }
+            default:
+                return false;
+        }
+    }
+
+    private List<Event> ReadEvents(LongList positions) {
+        List<Event> result = new ArrayList<>(positions.Size());
+
+        for (int i = 0; i < positions.Size(); i++) {
+            result.add(ReadEvent(positions.Get(i)));
+        }
+
+        // Appended in time order unless the clock went back.
+        result.sort(Comparator.comparing(Event::timestamp).thenComparingLong(Event::id));
+
+        return result;
+    }
+
+    private Event ReadEvent(long position) {
+        MappedByteBuffer segment = segments.get((int) (position / segmentBytes));
+        int at = (int) (position % segmentBytes) + RECORD_HEADER + 1;
+        byte[] description = new byte[Short.toUnsignedInt(segment.getShort(at + 20))];
+
+        segment.get(at + 22, description);
+
+        return new Event(
+                segment.getInt(at),
+                new Timestamp(segment.getLong(at + 4)),
+                segment.getInt(at + 12),
+                segment.getInt(at + 16),
+                new String(description, StandardCharsets.UTF_8));
+    }
+
+    private long ReadMillis(long position) {
+        return segments.get((int) (position / segmentBytes)).getLong((int) (position % segmentBytes) + RECORD_HEADER + 1 + 4);
+    }
+
+    // Events come in time order, so the bounds of the last day answer almost every call without a time zone lookup.
+    private long Day(long millis) {
+        if (millis < dayStart || millis >= dayEnd) {
+            LocalDate date = Instant.ofEpochMilli(millis).atZone(zone).toLocalDate();
+
+            day = date.toEpochDay();
+            dayStart = date.atStartOfDay(zone).toInstant().toEpochMilli();
+            dayEnd = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        }
+
+        return day;
+    }
+
+    // The end of the last non-zero word in the segment from the offset on, or the offset when all are zero.
+    private int UsedTo(MappedByteBuffer segment, int offset) {
+        int used = offset;
+
+        for (int i = offset; i < segmentBytes; i += Integer.BYTES) {
+            if (segment.getInt(i) != 0) {
+                used = i + Integer.BYTES;
+            }
+        }
+
+        return used;
+    }
+
+    private static String ReadString(ByteBuffer record) {
+        byte[] bytes = new byte[Short.toUnsignedInt(record.getShort())];
+        record.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int Align(int size) {
+        return (size + 3) & ~3;
+    }
+
+    private static class IntList {
+        private int[] items = new int[4];
+        private int size = 0;
+
+        void Add(int item) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+
+            items[size++] = item;
+        }
+
+        int Get(int index) {
+            return items[index];
+        }
+
+        int Size() {
+            return size;
+        }
+    }
+
+    private static class LongList {
+        private long[] items = new long[4];
+        private int size = 0;
+
+        void Add(long item) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+
+            items[size++] = item;
+        }
+
+        long Get(int index) {
+            return items[index];
+        }
+
+        void Set(int index, long item) {
+            items[index] = item;
+        }
+
+        int Size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package at.koodi;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * One page of events, newest first. nextToken continues with the next older page and is null on the last page.
+ * The token is opaque to callers; it encodes the (timestamp, id) key of the last event on the page.
+ */
+public record EventPage(List<Event> events, String nextToken) {
+    record Key(Timestamp timestamp, long id) {
+    }
+
+    public boolean HasMore() {
+        return nextToken != null;
+    }
+
+    static String Token(Event last) {
+        String key = last.timestamp().getTime() / 1000
+                + ":" + last.timestamp().getNanos()
+                + ":" + last.id();
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    static Key ParseToken(String token) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.US_ASCII).split(":");
+
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Invalid continuation token");
+            }
+
+            Timestamp timestamp = new Timestamp(Long.parseLong(parts[0]) * 1000);
+            timestamp.setNanos(Integer.parseInt(parts[1]));
+
+            return new Key(timestamp, Long.parseLong(parts[2]));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid continuation token", e);
+        }
+    }
+}
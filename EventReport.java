@@ -0,0 +1,333 @@
+package at.koodi;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Operations report over Events, computed in one pass: events per location and day, the distribution of
+ * events per package, and events per hour. The id range of Events is split in halves until a part spans at
+ * most report.rangeIds ids and there are at least four parts per thread; report.threads fork/join workers
+ * each stream their parts on a pooled connection and count into {@link LongLongMap}s, which are merged
+ * pairwise on the way back up. Archived events are counted too; an event moved by an archival that runs
+ * during the report may be counted twice or not at all. An event without a location or package counts
+ * towards the totals and hours but not towards any location or package.
+ */
+public class EventReport {
+    /** Ranked location totals, package distribution and busiest hours, ready to print. */
+    public record Result(long events, int ranges, int threads, long elapsedMillis, String text) {
+        public double RowsPerSecond() {
+            return elapsedMillis == 0 ? events : events * 1000.0 / elapsedMillis;
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final Dialect dialect;
+    private final Metrics metrics;
+    private final int fetchSize;
+    private final int threads;
+    private final long rangeIds;
+    private final int top;
+
+    public EventReport(ConnectionPool pool, Dialect dialect, Metrics metrics, Settings settings) {
+        this.pool = pool;
+        this.dialect = dialect;
+        this.metrics = metrics;
+        this.fetchSize = Math.max(0, settings.GetInt("read.fetchSize", 1000));
+        this.threads = Math.max(1, Math.min(pool.MaxSize(), settings.GetInt("report.threads", pool.MaxSize())));
+        this.rangeIds = Math.max(1, settings.GetLong("report.rangeIds", 250000));
+        this.top = Math.max(1, settings.GetInt("report.top", 10));
+    }
+
+    public Result Run() throws SQLException {
+        long startTime = System.currentTimeMillis();
+
+        long minId;
+        long maxId;
+        Map<Integer, String> locations = new HashMap<>();
+
+        try (PooledConnection connection = pool.Borrow()) {
+            try (ResultSet resultSet = connection.Prepare(dialect.EventIdRange()).executeQuery()) {
+                resultSet.next();
+
+                minId = resultSet.getLong(1);
+                maxId = resultSet.getLong(2);
+
+                if (resultSet.wasNull()) {
+                    maxId = minId - 1;
+                }
+            }
+
+            try (ResultSet resultSet = connection.Prepare(dialect.AllLocationIds()).executeQuery()) {
+                while (resultSet.next()) {
+                    locations.put(resultSet.getInt(1), resultSet.getString(2));
+                }
+            }
+        }
+
+        Totals totals;
+        ForkJoinPool workers = new ForkJoinPool(threads);
+
+        try {
+            // At least four parts per thread, so a part that reads slowly does not leave the others idle.
+            long span = maxId + 1 - minId;
+            long leafIds = Math.max(1, Math.min(rangeIds, (span + 4L * threads - 1) / (4L * threads)));
+
+            totals = span <= 0 ? new Totals() : workers.invoke(new Range(minId, maxId + 1, leafIds));
+        } finally {
+            workers.shutdown();
+        }
+
+        long elapsed = System.currentTimeMillis() - startTime;
+
+        return new Result(totals.events, totals.ranges, threads, elapsed, Format(totals, locations));
+    }
+
+    // Counts of one or more id ranges.
+    private static class Totals {
+        long events = 0;
+        int ranges = 0;
+
+        // (location id, epoch day), package id and epoch hour (epoch day * 24 + hour of day) to events.
+        LongLongMap locationDays = new LongLongMap(1 << 10);
+        LongLongMap packageEvents = new LongLongMap(1 << 12);
+        LongLongMap hours = new LongLongMap(1 << 10);
+
+        Totals Merge(Totals other) {
+            events += other.events;
+            ranges += other.ranges;
+            locationDays = Merge(locationDays, other.locationDays);
+            packageEvents = Merge(packageEvents, other.packageEvents);
+            hours = Merge(hours, other.hours);
+
+            return this;
+        }
+
+        // Adds the smaller map into the larger one, so each entry is rehashed O(log ranges) times at most.
+        private static LongLongMap Merge(LongLongMap a, LongLongMap b) {
+            if (a.Size() < b.Size()) {
+                b.AddAll(a);
+
+                return b;
+            }
+
+            a.AddAll(b);
+
+            return a;
+        }
+    }
+
+    // Ids in [from, to): split in halves until small enough, then read on one connection.
+    @SuppressWarnings("serial")
+    private class Range extends RecursiveTask<Totals> {
+        private final long from;
+        private final long to;
+        private final long leafIds;
+
+        Range(long from, long to, long leafIds) {
+            this.from = from;
+            this.to = to;
+            this.leafIds = leafIds;
+        }
+
+        @Override
+        protected Totals compute() {
+            if (to - from <= leafIds) {
+                try {
+                    return Read();
+                } catch (SQLException e) {
+                    throw new IllegalStateException("Reading events " + from + " to " + to + " failed", e);
+                }
+            }
+
+            long middle = from + (to - from) / 2;
+            Range left = new Range(from, middle, leafIds);
+
+            left.fork();
+
+            Totals right = new Range(middle, to, leafIds).compute();
+
+            return left.join().Merge(right);
+        }
+
+        private Totals Read() throws SQLException {
+            try (PooledConnection connection = pool.Borrow()) {
+                return metrics.Measure("report_range", connection, totals -> totals.events, () -> {
+                    Totals totals = new Totals();
+                    PreparedStatement statement = connection.Prepare(dialect.ReportEvents());
+                    statement.setFetchSize(fetchSize);
+                    statement.setLong(1, from);
+                    statement.setLong(2, to);
+                    statement.setLong(3, from);
+                    statement.setLong(4, to);
+
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            LocalDateTime time = resultSet.getTimestamp(1).toLocalDateTime();
+                            long day = time.toLocalDate().toEpochDay();
+                            int packageId = resultSet.getInt(2);
+
+                            if (!resultSet.wasNull()) {
+                                totals.packageEvents.Add(packageId, 1);
+                            }
+
+                            int locationId = resultSet.getInt(3);
+
+                            if (!resultSet.wasNull()) {
+                                totals.locationDays.Add(LongLongMap.Key(locationId, (int) day), 1);
+                            }
+
+                            totals.hours.Add(day * 24 + time.getHour(), 1);
+                            totals.events++;
+                        }
+                    }
+
+                    totals.ranges = 1;
+
+                    return totals;
+                });
+            }
+        }
+    }
+
+    private String Format(Totals totals, Map<Integer, String> locationNames) {
+        StringBuilder text = new StringBuilder();
+
+        FormatLocations(text, totals.locationDays, locationNames);
+        FormatPackages(text, totals.packageEvents);
+        FormatHours(text, totals.hours);
+
+        return text.toString();
+    }
+
+    private void FormatLocations(StringBuilder text, LongLongMap locationDays, Map<Integer, String> locationNames) {
+        // Per location: total, active days, busiest day and its events.
+        LongLongMap totals = new LongLongMap();
+        LongLongMap days = new LongLongMap();
+        LongLongMap busiestDay = new LongLongMap();
+        LongLongMap busiestEvents = new LongLongMap();
+
+        locationDays.ForEach((key, events) -> {
+            int location = LongLongMap.High(key);
+            int day = LongLongMap.Low(key);
+
+            totals.Add(location, events);
+            days.Add(location, 1);
+
+            long best = busiestEvents.Get(location, -1);
+
+            if (events > best || events == best && day > busiestDay.Get(location, 0)) {
+                busiestEvents.Put(location, events);
+                busiestDay.Put(location, day);
+            }
+        });
+
+        List<long[]> ranked = new ArrayList<>();
+        totals.ForEach((location, events) -> ranked.add(new long[] {location, events}));
+        ranked.sort(Comparator.comparingLong((long[] row) -> -row[1]).thenComparingLong(row -> row[0]));
+
+        text.append(String.format("Daily throughput per location, top %d of %d by events:%n", Math.min(top, ranked.size()), ranked.size()));
+
+        for (long[] row : ranked.subList(0, Math.min(top, ranked.size()))) {
+            long location = row[0];
+            long activeDays = days.Get(location, 1);
+
+            text.append(String.format(
+                    "  %-20s %10d events %5d days %10.1f/day  busiest %s with %d%n",
+                    locationNames.getOrDefault((int) location, "(none)"),
+                    row[1],
+                    activeDays,
+                    (double) row[1] / activeDays,
+                    LocalDate.ofEpochDay(busiestDay.Get(location, 0)),
+                    busiestEvents.Get(location, 0)));
+        }
+    }
+
+    private void FormatPackages(StringBuilder text, LongLongMap packageEvents) {
+        long[] counts = new long[packageEvents.Size()];
+        int[] next = {0};
+
+        packageEvents.ForEach((pkg, events) -> counts[next[0]++] = events);
+        Arrays.sort(counts);
+
+        text.append(String.format("Events per package over %d packages with events:%n", counts.length));
+
+        if (counts.length == 0) {
+            return;
+        }
+
+        text.append(String.format(
+                "  mean %.1f p50 %d p90 %d p99 %d max %d%n",
+                Arrays.stream(counts).sum() / (double) counts.length,
+                Percentile(counts, 50),
+                Percentile(counts, 90),
+                Percentile(counts, 99),
+                counts[counts.length - 1]));
+
+        // Powers of two: 1, 2-3, 4-7, ...
+        int bucket = 0;
+        int start = 0;
+
+        while (start < counts.length) {
+            long high = (2L << bucket) - 1;
+            int end = start;
+
+            while (end < counts.length && counts[end] <= high) {
+                end++;
+            }
+
+            if (end > start) {
+                text.append(String.format("  %12s events %10d packages%n", bucket == 0 ? "1" : (1L << bucket) + "-" + high, end - start));
+            }
+
+            start = end;
+            bucket++;
+        }
+    }
+
+    private void FormatHours(StringBuilder text, LongLongMap hours) {
+        long[] hourOfDay = new long[24];
+        List<long[]> ranked = new ArrayList<>();
+
+        hours.ForEach((hour, events) -> {
+            hourOfDay[(int) Math.floorMod(hour, 24L)] += events;
+            ranked.add(new long[] {hour, events});
+        });
+
+        long max = Math.max(1, Arrays.stream(hourOfDay).max().orElse(1));
+
+        text.append(String.format("Events by hour of day:%n"));
+
+        for (int hour = 0; hour < 24; hour++) {
+            text.append(String.format("  %02d:00 %10d %s%n", hour, hourOfDay[hour], "#".repeat((int) (40 * hourOfDay[hour] / max))));
+        }
+
+        ranked.sort(Comparator.comparingLong((long[] row) -> -row[1]).thenComparingLong(row -> row[0]));
+
+        text.append(String.format("Busiest hours:%n"));
+
+        for (long[] row : ranked.subList(0, Math.min(top, ranked.size()))) {
+            text.append(String.format(
+                    "  %s %02d:00 %10d events%n",
+                    LocalDate.ofEpochDay(Math.floorDiv(row[0], 24L)),
+                    Math.floorMod(row[0], 24L),
+                    row[1]));
+        }
+    }
+
+    private static long Percentile(long[] sorted, double percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
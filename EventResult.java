@@ -0,0 +1,7 @@
+package at.koodi;
+
+public enum EventResult {
+    ADDED,
+    UNKNOWN_LOCATION,
+    UNKNOWN_PACKAGE
+}
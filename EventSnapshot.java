@@ -0,0 +1,483 @@
+package at.koodi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only columnar copy of Events and EventsArchive in one file, for answering the three lookups without
+ * the database. {@link #Write} streams the events in id order into memory-mapped columns; {@link #Open} maps
+ * them back and every query is a sequential scan of the columns it needs. The mappings are released by the
+ * garbage collector, so there is nothing to close.
+ *
+ * The file is little-endian: a header of {@value #HEADER_SIZE} bytes, then the columns id (int), seconds since
+ * the oldest event (int), milliseconds (short), package id (int), location id (int) and description code (1,
+ * 2 or 4 bytes, depending on how many distinct descriptions there are), then the dictionaries of descriptions,
+ * locations, customers and packages as length-prefixed UTF-8. A missing package or location id is stored as 0.
+ * The columns are mapped at the size counted before the export, and the file is never shrunk while they are
+ * mapped (which Windows refuses), so the dictionaries start after room for 4-byte description codes.
+ *
+ * Archived events are part of every answer, as they are in the database's queries.
+ */
+public class EventSnapshot {
+    public record Result(long rows, int descriptions, long bytes, long elapsedMillis) {
+    }
+
+    private static final long MAGIC = 0x31304E5041534B54L; // "TKSNAP01"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 128;
+
+    // The columns are mapped one buffer each, so a column may not exceed 2 GB.
+    private static final long MAX_ROWS = Integer.MAX_VALUE / Integer.BYTES;
+
+    private final long rows;
+    private final long baseMillis;
+
+    private final IntBuffer ids;
+    private final IntBuffer seconds;
+    private final ShortBuffer millis;
+    private final IntBuffer packages;
+    private final IntBuffer locations;
+    private final ByteBuffer descriptionCodes;
+    private final int descriptionWidth;
+
+    private final String[] descriptions;
+    private final Map<Integer, String> locationNames = new HashMap<>();
+    private final Map<String, Integer> locationIds = new HashMap<>();
+    private final Map<String, Integer> customerIds = new HashMap<>();
+    private final Map<String, Integer> packageIds = new HashMap<>();
+    private final int[] packageIdList;
+    private final int[] packageCustomers;
+    private final String[] trackingCodes;
+
+    /**
+     * Writes every event in Events and EventsArchive, with the locations, customers and packages, to the file.
+     * Events added after the export started are left out. Fails when the read returns more events than were
+     * counted, e.g. because an event with a lower id committed late or archival moved events during the read.
+     */
+    public static Result Write(PooledConnection connection, Dialect dialect, Path file, int fetchSize) throws IOException, SQLException {
+        long startTime = System.currentTimeMillis();
+
+        long capacity;
+        long baseMillis;
+        int maxId;
+
+        try (ResultSet resultSet = connection.Prepare(dialect.SnapshotBounds()).executeQuery()) {
+            resultSet.next();
+
+            capacity = resultSet.getLong(1);
+            Timestamp oldest = resultSet.getTimestamp(2);
+            baseMillis = oldest == null ? 0 : Math.floorDiv(oldest.getTime(), 1000L) * 1000;
+            maxId = resultSet.getInt(3);
+        }
+
+        if (capacity > MAX_ROWS) {
+            throw new IllegalArgumentException("Too many events for one snapshot: " + capacity + ", at most " + MAX_ROWS);
+        }
+
+        long idsAt = HEADER_SIZE;
+        long secondsAt = idsAt + Integer.BYTES * capacity;
+        long millisAt = secondsAt + Integer.BYTES * capacity;
+        long packagesAt = Align(millisAt + Short.BYTES * capacity);
+        long locationsAt = packagesAt + Integer.BYTES * capacity;
+        long descriptionsAt = locationsAt + Integer.BYTES * capacity;
+
+        Map<String, Integer> descriptionCodes = new HashMap<>();
+        List<String> descriptions = new ArrayList<>();
+
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer idColumn = Map(channel, FileChannel.MapMode.READ_WRITE, idsAt, Integer.BYTES * capacity);
+            MappedByteBuffer secondColumn = Map(channel, FileChannel.MapMode.READ_WRITE, secondsAt, Integer.BYTES * capacity);
+            MappedByteBuffer milliColumn = Map(channel, FileChannel.MapMode.READ_WRITE, millisAt, Short.BYTES * capacity);
+            MappedByteBuffer packageColumn = Map(channel, FileChannel.MapMode.READ_WRITE, packagesAt, Integer.BYTES * capacity);
+            MappedByteBuffer locationColumn = Map(channel, FileChannel.MapMode.READ_WRITE, locationsAt, Integer.BYTES * capacity);
+            MappedByteBuffer descriptionColumn = Map(channel, FileChannel.MapMode.READ_WRITE, descriptionsAt, Integer.BYTES * capacity);
+
+            int rows = 0;
+
+            if (capacity > 0) {
+                PreparedStatement statement = connection.Prepare(dialect.SnapshotEvents());
+                statement.setFetchSize(fetchSize);
+                statement.setInt(1, maxId);
+                statement.setInt(2, maxId);
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        if (rows == capacity) {
+                            throw new SQLException("Events changed while the snapshot was written: more than the "
+                                    + capacity + " events counted at its start. Run the export again.");
+                        }
+
+                        long time = resultSet.getTimestamp(2).getTime() - baseMillis;
+                        String description = resultSet.getString(5);
+                        Integer code = descriptionCodes.get(description);
+
+                        if (code == null) {
+                            code = descriptions.size();
+                            descriptionCodes.put(description, code);
+                            descriptions.add(description);
+                        }
+
+                        idColumn.putInt(resultSet.getInt(1));
+                        secondColumn.putInt((int) Math.floorDiv(time, 1000L));
+                        milliColumn.putShort((short) Math.floorMod(time, 1000L));
+                        packageColumn.putInt(resultSet.getInt(3));
+                        locationColumn.putInt(resultSet.getInt(4));
+                        descriptionColumn.putInt(code);
+                        rows++;
+                    }
+                }
+            }
+
+            // Narrow the description codes in place; code i moves from 4i to width * i, never past a code still unread.
+            int width = descriptions.size() <= 1 << 8 ? 1 : descriptions.size() <= 1 << 16 ? 2 : 4;
+
+            for (int i = 0; i < rows; i++) {
+                int code = descriptionColumn.getInt(Integer.BYTES * i);
+
+                if (width == 1) {
+                    descriptionColumn.put(i, (byte) code);
+                } else if (width == 2) {
+                    descriptionColumn.putShort(Short.BYTES * i, (short) code);
+                }
+            }
+
+            for (MappedByteBuffer column : List.of(idColumn, secondColumn, milliColumn, packageColumn, locationColumn, descriptionColumn)) {
+                column.force();
+            }
+
+            long dictionariesAt = Align(descriptionsAt + Integer.BYTES * capacity);
+            ByteBuffer dictionaries = Dictionaries(connection, dialect, descriptions);
+
+            channel.write(dictionaries, dictionariesAt);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                    .putLong(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(width)
+                    .putLong(rows)
+                    .putLong(baseMillis)
+                    .putLong(idsAt)
+                    .putLong(secondsAt)
+                    .putLong(millisAt)
+                    .putLong(packagesAt)
+                    .putLong(locationsAt)
+                    .putLong(descriptionsAt)
+                    .putLong(dictionariesAt)
+                    .putLong(dictionaries.limit());
+
+            channel.write(header.clear(), 0);
+            channel.force(true);
+
+            return new Result(rows, descriptions.size(), channel.size(), System.currentTimeMillis() - startTime);
+        }
+    }
+
+    public static EventSnapshot Open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new EventSnapshot(channel);
+        }
+    }
+
+    private EventSnapshot(FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            throw new IOException("Not an event snapshot: shorter than its header");
+        }
+
+        ByteBuffer header = Map(channel, FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+
+        if (header.getLong() != MAGIC) {
+            throw new IOException("Not an event snapshot");
+        }
+
+        int version = header.getInt();
+
+        if (version != VERSION) {
+            throw new IOException("Unsupported event snapshot version " + version);
+        }
+
+        descriptionWidth = header.getInt();
+        rows = header.getLong();
+        baseMillis = header.getLong();
+
+        ids = Map(channel, FileChannel.MapMode.READ_ONLY, header.getLong(), Integer.BYTES * rows).asIntBuffer();
+        seconds = Map(channel, FileChannel.MapMode.READ_ONLY, header.getLong(), Integer.BYTES * rows).asIntBuffer();
+        millis = Map(channel, FileChannel.MapMode.READ_ONLY, header.getLong(), Short.BYTES * rows).asShortBuffer();
+        packages = Map(channel, FileChannel.MapMode.READ_ONLY, header.getLong(), Integer.BYTES * rows).asIntBuffer();
+        locations = Map(channel, FileChannel.MapMode.READ_ONLY, header.getLong(), Integer.BYTES * rows).asIntBuffer();
+        descriptionCodes = Map(channel, FileChannel.MapMode.READ_ONLY, header.getLong(), (long) descriptionWidth * rows);
+
+        ByteBuffer dictionaries = Map(channel, FileChannel.MapMode.READ_ONLY, header.getLong(), header.getLong());
+
+        descriptions = new String[dictionaries.getInt()];
+
+        for (int i = 0; i < descriptions.length; i++) {
+            descriptions[i] = ReadString(dictionaries);
+        }
+
+        for (int i = dictionaries.getInt(); i > 0; i--) {
+            int id = dictionaries.getInt();
+            String name = ReadString(dictionaries);
+
+            locationNames.put(id, name);
+            locationIds.putIfAbsent(name, id);
+        }
+
+        for (int i = dictionaries.getInt(); i > 0; i--) {
+            int id = dictionaries.getInt();
+            customerIds.putIfAbsent(ReadString(dictionaries), id);
+        }
+
+        int packageCount = dictionaries.getInt();
+
+        packageIdList = new int[packageCount];
+        packageCustomers = new int[packageCount];
+        trackingCodes = new String[packageCount];
+
+        for (int i = 0; i < packageCount; i++) {
+            packageIdList[i] = dictionaries.getInt();
+            packageCustomers[i] = dictionaries.getInt();
+            trackingCodes[i] = ReadString(dictionaries);
+            packageIds.putIfAbsent(trackingCodes[i], packageIdList[i]);
+        }
+    }
+
+    public long Rows() {
+        return rows;
+    }
+
+    public int LocationId(String location) {
+        return locationIds.getOrDefault(location, -1);
+    }
+
+    public int CustomerId(String customer) {
+        return customerIds.getOrDefault(customer, -1);
+    }
+
+    public int PackageId(String trackingCode) {
+        return packageIds.getOrDefault(trackingCode, -1);
+    }
+
+    /** The package's events, oldest first. */
+    public List<Event> EventsForPackage(int packageId) {
+        List<Event> events = new ArrayList<>();
+
+        for (int row = 0; row < rows; row++) {
+            if (packages.get(row) == packageId) {
+                events.add(ReadEvent(row));
+            }
+        }
+
+        events.sort(Comparator.comparing(Event::timestamp).thenComparingLong(Event::id));
+
+        return events;
+    }
+
+    /** The customer's packages that have events, with their count and last event, from one scan of two columns. */
+    public List<PackageEventCount> PackagesForCustomerWithEventCounts(int customerId) {
+        // slots[id] is 1 + the index of package id among the customer's packages, or 0 for other packages.
+        int maxId = 0;
+        List<Integer> owned = new ArrayList<>();
+
+        for (int i = 0; i < packageIdList.length; i++) {
+            if (packageCustomers[i] == customerId) {
+                owned.add(i);
+                maxId = Math.max(maxId, packageIdList[i]);
+            }
+        }
+
+        if (owned.isEmpty()) {
+            return List.of();
+        }
+
+        int[] slots = new int[maxId + 1];
+
+        for (int slot = 0; slot < owned.size(); slot++) {
+            slots[packageIdList[owned.get(slot)]] = slot + 1;
+        }
+
+        long[] counts = new long[owned.size()];
+        int[] lastRows = new int[owned.size()];
+
+        for (int row = 0; row < rows; row++) {
+            int packageId = packages.get(row);
+
+            if (packageId <= 0 || packageId > maxId || slots[packageId] == 0) {
+                continue;
+            }
+
+            int slot = slots[packageId] - 1;
+
+            if (counts[slot]++ == 0 || Time(row) >= Time(lastRows[slot])) {
+                lastRows[slot] = row;
+            }
+        }
+
+        List<PackageEventCount> result = new ArrayList<>();
+
+        for (int slot = 0; slot < owned.size(); slot++) {
+            if (counts[slot] > 0) {
+                int last = lastRows[slot];
+
+                result.add(new PackageEventCount(
+                        trackingCodes[owned.get(slot)],
+                        counts[slot],
+                        new Timestamp(baseMillis + Time(last)),
+                        locationNames.get(locations.get(last))));
+            }
+        }
+
+        return result;
+    }
+
+    /** The location's events on the day, oldest first. */
+    public List<Event> EventsForLocationOnDay(int locationId, LocalDate day) {
+        long from = Timestamp.valueOf(day.atStartOfDay()).getTime() - baseMillis;
+        long to = Timestamp.valueOf(day.plusDays(1).atStartOfDay()).getTime() - baseMillis;
+
+        List<Event> events = new ArrayList<>();
+
+        for (int row = 0; row < rows; row++) {
+            if (locations.get(row) == locationId) {
+                long time = Time(row);
+
+                if (time >= from && time < to) {
+                    events.add(ReadEvent(row));
+                }
+            }
+        }
+
+        events.sort(Comparator.comparing(Event::timestamp).thenComparingLong(Event::id));
+
+        return events;
+    }
+
+    private long Time(int row) {
+        return seconds.get(row) * 1000L + millis.get(row);
+    }
+
+    private Event ReadEvent(int row) {
+        return new Event(
+                ids.get(row),
+                new Timestamp(baseMillis + Time(row)),
+                packages.get(row),
+                locations.get(row),
+                descriptions[DescriptionCode(row)]);
+    }
+
+    private int DescriptionCode(int row) {
+        switch (descriptionWidth) {
+            case 1:
+                return Byte.toUnsignedInt(descriptionCodes.get(row));
+            case 2:
+                return Short.toUnsignedInt(descriptionCodes.getShort(Short.BYTES * row));
+            default:
+                return descriptionCodes.getInt(Integer.BYTES * row);
+        }
+    }
+
+    private static ByteBuffer Dictionaries(PooledConnection connection, Dialect dialect, List<String> descriptions) throws SQLException {
+        Output out = new Output();
+
+        out.Int(descriptions.size());
+        descriptions.forEach(out::String);
+
+        for (String sqlQuery : List.of(dialect.AllLocationIds(), dialect.AllCustomerIds())) {
+            int count = 0;
+            Output names = new Output();
+
+            try (ResultSet resultSet = connection.Prepare(sqlQuery).executeQuery()) {
+                while (resultSet.next()) {
+                    names.Int(resultSet.getInt(1));
+                    names.String(resultSet.getString(2));
+                    count++;
+                }
+            }
+
+            out.Int(count);
+            out.Append(names);
+        }
+
+        int count = 0;
+        Output packages = new Output();
+
+        try (ResultSet resultSet = connection.Prepare(dialect.SnapshotPackages()).executeQuery()) {
+            while (resultSet.next()) {
+                packages.Int(resultSet.getInt(1));
+                packages.Int(resultSet.getInt(2));
+                packages.String(resultSet.getString(3));
+                count++;
+            }
+        }
+
+        out.Int(count);
+        out.Append(packages);
+
+        return out.buffer.flip();
+    }
+
+    // A growing little-endian buffer for the dictionaries.
+    private static class Output {
+        private ByteBuffer buffer = ByteBuffer.allocate(1 << 12).order(ByteOrder.LITTLE_ENDIAN);
+
+        void Int(int value) {
+            Reserve(Integer.BYTES).putInt(value);
+        }
+
+        void String(String value) {
+            byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+
+            Reserve(Integer.BYTES + bytes.length).putInt(bytes.length).put(bytes);
+        }
+
+        void Append(Output other) {
+            Reserve(other.buffer.position()).put(other.buffer.flip());
+        }
+
+        private ByteBuffer Reserve(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                buffer = grown.put(buffer.flip());
+            }
+
+            return buffer;
+        }
+    }
+
+    private static String ReadString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static MappedByteBuffer Map(FileChannel channel, FileChannel.MapMode mode, long position, long size) throws IOException {
+        MappedByteBuffer buffer = channel.map(mode, position, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        return buffer;
+    }
+
+    private static long Align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+}
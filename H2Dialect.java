@@ -0,0 +1,91 @@
+package at.koodi;
+
+import java.util.List;
+
+/**
+ * Embedded H2 engine, in-process so timings measure the schema and queries instead of the network.
+ * Needs the H2 jar and the classes of the h2 source set, which hold the event counter trigger, on the classpath.
+ */
+public class H2Dialect extends Dialect {
+    /** The row trigger behind TR_Events_Counters, in the h2 source set. */
+    static final String EVENT_COUNTER_TRIGGER = "at.koodi.EventCounterTrigger";
+
+    @Override
+    public String Name() {
+        return "h2";
+    }
+
+    @Override
+    public String JdbcUrl(Settings settings) {
+        return settings.GetString("h2.url", "jdbc:h2:./tikape-db");
+    }
+
+    @Override
+    public List<String> CreateTables() {
+        return List.of(
+                "CREATE TABLE IF NOT EXISTS Locations(id int generated by default as identity not null primary key, description varchar(255) not null)",
+                "CREATE TABLE IF NOT EXISTS Customers(id int generated by default as identity not null primary key, name varchar(255) not null)",
+                "CREATE TABLE IF NOT EXISTS Packages(id int generated by default as identity not null primary key, trackingcode varchar(255) not null, customer_id int REFERENCES Customers(id))",
+                "CREATE TABLE IF NOT EXISTS Events(id int generated by default as identity not null primary key, timestamp timestamp not null default current_timestamp, package_id int REFERENCES Packages(id), location_id int REFERENCES Locations(id), description varchar(255) not null)",
+                "CREATE TABLE IF NOT EXISTS EventsArchive(id int not null primary key, timestamp timestamp not null, package_id int, location_id int, description varchar(255) not null)",
+                "CREATE INDEX IF NOT EXISTS IX_EventsArchive_package_id ON EventsArchive(package_id, timestamp)",
+                "CREATE INDEX IF NOT EXISTS IX_EventsArchive_location_id ON EventsArchive(location_id, timestamp)",
+                "ALTER TABLE Packages ADD COLUMN IF NOT EXISTS event_count bigint not null default 0",
+                "ALTER TABLE Packages ADD COLUMN IF NOT EXISTS last_event_at timestamp",
+                "ALTER TABLE Packages ADD COLUMN IF NOT EXISTS last_location_id int",
+                // Named rather than referenced, so only the H2 source set needs the H2 jar to compile.
+                "CREATE TRIGGER IF NOT EXISTS TR_Events_Counters AFTER INSERT ON Events FOR EACH ROW CALL '"
+                + EVENT_COUNTER_TRIGGER + "'");
+    }
+
+    @Override
+    public List<String> ClearTables() {
+        return List.of(
+                "DELETE FROM EventsArchive",
+                "DELETE FROM Events",
+                "DELETE FROM Packages",
+                "DELETE FROM Customers",
+                "DELETE FROM Locations",
+                "ALTER TABLE Events ALTER COLUMN id RESTART WITH 1",
+                "ALTER TABLE Packages ALTER COLUMN id RESTART WITH 1",
+                "ALTER TABLE Customers ALTER COLUMN id RESTART WITH 1",
+                "ALTER TABLE Locations ALTER COLUMN id RESTART WITH 1");
+    }
+
+    // H2 has no table partitioning, so Events stays one table stored in id order. Ids follow time only for
+    // events added as they happen; imported and generated events bring their own timestamps, so old and
+    // recent events can be mixed throughout the table.
+    @Override
+    public List<String> PartitionEventsByMonth(int monthsAhead) {
+        return List.of();
+    }
+
+    // The delete hands the removed rows to the insert through OLD TABLE, so both happen in one statement.
+    @Override
+    public String ArchiveEvents() {
+        return "INSERT INTO EventsArchive(" + EVENT_COLUMNS + ") SELECT " + EVENT_COLUMNS + " FROM OLD TABLE ("
+                + "DELETE FROM Events WHERE id IN (SELECT e.id FROM Events e JOIN Packages p ON p.id = e.package_id "
+                + "WHERE e.timestamp < ?1 AND p.last_event_at < ?1 ORDER BY e.id FETCH FIRST ?2 ROWS ONLY))";
+    }
+
+    // H2 has no included columns, so a covering index gets them as trailing key columns instead.
+    @Override
+    public String CreateIndex(Index index) {
+        return "CREATE INDEX IF NOT EXISTS " + index.name() + " ON " + index.table() + "(" + index.columns()
+                + (index.include() == null ? "" : ", " + index.include()) + ")";
+    }
+
+    @Override
+    public String DropIndex(Index index) {
+        return "DROP INDEX IF EXISTS " + index.name();
+    }
+
+    // NEW TABLE rather than FINAL TABLE: H2 does not allow FINAL TABLE on a table with AFTER triggers.
+    @Override
+    public String AddEventByNames() {
+        return "SELECT package_id, location_id FROM NEW TABLE ("
+                + "INSERT INTO Events(package_id, location_id, description) "
+                + "SELECT p.id, l.id, CAST(? AS varchar(255)) FROM Packages p CROSS JOIN Locations l "
+                + "WHERE p.trackingcode = ? AND l.description = ? ORDER BY p.id DESC, l.id DESC FETCH FIRST 1 ROW ONLY)";
+    }
+}
@@ -0,0 +1,99 @@
+package at.koodi;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU map from a natural key (location description, customer name, tracking code) to its row id.
+ * Rows are never renamed or deleted, so a cached id stays valid for the lifetime of the app.
+ */
+public class IdCache {
+    private final String name;
+    private final int maxSize;
+    private final LinkedHashMap<String, Integer> ids;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public IdCache(String name, int maxSize) {
+        this.name = name;
+        this.maxSize = maxSize;
+        this.ids = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                if (size() > IdCache.this.maxSize) {
+                    evictions++;
+
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    public synchronized Integer Get(String key) {
+        Integer id = ids.get(key);
+
+        if (id == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+
+        return id;
+    }
+
+    public synchronized void Put(String key, int id) {
+        ids.put(key, id);
+    }
+
+    public synchronized void Clear() {
+        ids.clear();
+    }
+
+    /** Loads up to the cache size of (id, key) rows returned by the query. */
+    public int WarmUp(PooledConnection connection, String sqlQuery) throws SQLException {
+        int loaded = 0;
+
+        PreparedStatement statement = connection.Prepare(sqlQuery);
+
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (loaded < maxSize && resultSet.next()) {
+                Put(resultSet.getString(2), resultSet.getInt(1));
+                loaded++;
+            }
+        }
+
+        return loaded;
+    }
+
+    public String Name() {
+        return name;
+    }
+
+    public synchronized int Size() {
+        return ids.size();
+    }
+
+    public synchronized long Hits() {
+        return hits;
+    }
+
+    public synchronized long Misses() {
+        return misses;
+    }
+
+    public synchronized long Evictions() {
+        return evictions;
+    }
+
+    public synchronized String Stats() {
+        return name + ": " + ids.size() + "/" + maxSize + " entries, "
+                + hits + " hits, " + misses + " misses, " + evictions + " evictions";
+    }
+}
@@ -0,0 +1,128 @@
+package at.koodi;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of latencies in nanoseconds, in the style of HdrHistogram. Values below 128 are
+ * counted exactly; above that every power-of-two range is split into 64 buckets, which keeps the error of
+ * a reported percentile under 1.6%. Recording is lock-free and safe from several threads.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKETS = 64;
+    private static final int EXACT = 2 * SUB_BUCKETS;
+    private static final int BUCKETS = EXACT + 57 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void Record(long nanos) {
+        long value = Math.max(0, nanos);
+
+        counts.incrementAndGet(IndexOf(value));
+        total.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public void Add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+
+        total.addAndGet(other.total.get());
+        sum.addAndGet(other.sum.get());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    public long Count() {
+        return total.get();
+    }
+
+    public long SumNanos() {
+        return sum.get();
+    }
+
+    public long MaxNanos() {
+        return max.get();
+    }
+
+    public double MeanNanos() {
+        long count = total.get();
+
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    /** Latency at the given percentile (0-100), as the upper bound of the bucket that holds it. */
+    public long PercentileNanos(double percentile) {
+        long count = total.get();
+
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+
+            if (seen >= rank) {
+                return Math.min(HighestValueIn(i), max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    public String Summary() {
+        return String.format(
+                "n=%d mean=%s p50=%s p95=%s p99=%s p99.9=%s max=%s",
+                Count(),
+                Format((long) MeanNanos()),
+                Format(PercentileNanos(50)),
+                Format(PercentileNanos(95)),
+                Format(PercentileNanos(99)),
+                Format(PercentileNanos(99.9)),
+                Format(MaxNanos()));
+    }
+
+    public static String Format(long nanos) {
+        if (nanos < 10_000) {
+            return nanos + "ns";
+        }
+
+        if (nanos < 10_000_000) {
+            return String.format("%.1fus", nanos / 1_000.0);
+        }
+
+        return String.format("%.1fms", nanos / 1_000_000.0);
+    }
+
+    private static int IndexOf(long value) {
+        if (value < EXACT) {
+            return (int) value;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+
+        return EXACT + (shift - 1) * SUB_BUCKETS + (int) ((value >> shift) - SUB_BUCKETS);
+    }
+
+    private static long HighestValueIn(int index) {
+        if (index < EXACT) {
+            return index;
+        }
+
+        int shift = (index - EXACT) / SUB_BUCKETS + 1;
+        long mantissa = (index - EXACT) % SUB_BUCKETS + SUB_BUCKETS;
+
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,252 @@
+package at.koodi;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Mixed concurrent workload against the rows already in the database: load.clients clients share a target
+ * rate of load.rate operations per second for load.durationS seconds, choosing operations by the weights in
+ * load.mix. The schedule is open-loop: every operation has an intended start time fixed in advance, and its
+ * latency is measured from that time, so a stalled database shows up as latency instead of as fewer requests
+ * (no coordinated omission). Each operation borrows a pooled connection, as a request of the HTTP service would.
+ */
+public class LoadTest {
+    public record OperationResult(String name, long count, long errors, LatencyHistogram latencies) {
+    }
+
+    public record Result(long elapsedMillis, long completed, long dropped, List<OperationResult> operations) {
+        public double OperationsPerSecond() {
+            return elapsedMillis == 0 ? completed : completed * 1000.0 / elapsedMillis;
+        }
+    }
+
+    private static final String[] OPERATIONS = {"event", "history", "packages", "day"};
+
+    private final ConnectionPool pool;
+    private final Tracker tracker;
+
+    private final int clients;
+    private final double rate;
+    private final int durationSeconds;
+    private final int[] weights = new int[OPERATIONS.length];
+    private final int totalWeight;
+    private final int sampleSize;
+    private final long seed;
+    private final Settings settings;
+
+    private EventIngester ingester;
+
+    private List<String> locations;
+    private List<String> customers;
+    private List<String> packages;
+
+    public LoadTest(ConnectionPool pool, Tracker tracker, Settings settings) {
+        this.pool = pool;
+        this.tracker = tracker;
+        this.settings = settings;
+        this.clients = Math.max(1, settings.GetInt("load.clients", 16));
+        this.rate = Math.max(1, settings.GetDouble("load.rate", 1000));
+        this.durationSeconds = Math.max(1, settings.GetInt("load.durationS", 30));
+        this.sampleSize = Math.max(1, settings.GetInt("load.sampleSize", 10000));
+        this.seed = settings.GetLong("load.seed", new Random().nextLong());
+
+        int total = 0;
+
+        for (String part : settings.GetString("load.mix", "event=20,history=60,packages=10,day=10").split(",")) {
+            String[] pair = part.trim().split("=");
+            int index = List.of(OPERATIONS).indexOf(pair[0].trim());
+
+            if (pair.length != 2 || index == -1) {
+                throw new IllegalArgumentException("Unknown load.mix entry " + part + ", expected e.g. event=20,history=60,packages=10,day=10");
+            }
+
+            weights[index] = Math.max(0, Integer.parseInt(pair[1].trim()));
+            total += weights[index];
+        }
+
+        if (total == 0) {
+            throw new IllegalArgumentException("load.mix gives every operation a weight of 0");
+        }
+
+        this.totalWeight = total;
+    }
+
+    public String Describe() {
+        StringBuilder mix = new StringBuilder();
+
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            mix.append(i == 0 ? "" : ", ").append(OPERATIONS[i]).append(' ').append(weights[i] * 100 / totalWeight).append('%');
+        }
+
+        return String.format(
+                "%d clients on %s, %.0f ops/s for %d s (%s%s), seed %d",
+                clients, VirtualThreads.Available() ? "virtual threads" : "platform threads", rate, durationSeconds, mix,
+                settings.GetBoolean("ingest.writeBehind", false) ? ", events through the write-behind queue" : "", seed);
+    }
+
+    public Result Run() throws Exception {
+        try (PooledConnection connection = pool.Borrow()) {
+            locations = Sample(connection, tracker.Dialect().AllLocationIds());
+            customers = Sample(connection, tracker.Dialect().AllCustomerIds());
+            packages = Sample(connection, tracker.Dialect().AllPackageIds());
+        }
+
+        if (locations.isEmpty() || customers.isEmpty() || packages.isEmpty()) {
+            throw new IllegalStateException("The load test needs locations, customers and packages; run the performance test or an import first");
+        }
+
+        LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+        AtomicLong[] counts = new AtomicLong[OPERATIONS.length];
+        AtomicLong[] errors = new AtomicLong[OPERATIONS.length];
+
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            latencies[i] = new LatencyHistogram();
+            counts[i] = new AtomicLong();
+            errors[i] = new AtomicLong();
+        }
+
+        AtomicLong dropped = new AtomicLong();
+
+        // Each client gets every clients-th slot of the shared schedule.
+        long interval = (long) (1e9 * clients / rate);
+        long start = System.nanoTime() + 10_000_000;
+        long end = start + durationSeconds * 1_000_000_000L;
+        long deadline = start + 2 * durationSeconds * 1_000_000_000L;
+
+        ingester = settings.GetBoolean("ingest.writeBehind", false) ? new EventIngester(pool, tracker, settings) : null;
+
+        ExecutorService executor = VirtualThreads.NewExecutor(clients);
+        List<Future<?>> workers = new ArrayList<>();
+
+        for (int c = 0; c < clients; c++) {
+            Random rand = new Random(seed * 31 + c);
+            long first = start + c * interval / clients;
+
+            workers.add(executor.submit(() -> {
+                for (long intended = first; intended < end; intended += interval) {
+                    long now = System.nanoTime();
+
+                    // Past the deadline the database is too far behind; count what is left instead of running it.
+                    if (now > deadline) {
+                        dropped.addAndGet((end - intended + interval - 1) / interval);
+
+                        break;
+                    }
+
+                    while (now < intended) {
+                        LockSupport.parkNanos(intended - now);
+                        now = System.nanoTime();
+                    }
+
+                    int operation = Pick(rand);
+
+                    try {
+                        RunOperation(operation, rand);
+                    } catch (SQLException | RuntimeException e) {
+                        // A failed operation is counted and the schedule goes on, so one error does not end the run.
+                        errors[operation].incrementAndGet();
+                    }
+
+                    latencies[operation].Record(System.nanoTime() - intended);
+                    counts[operation].incrementAndGet();
+                }
+
+                return null;
+            }));
+        }
+
+        try {
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            executor.shutdown();
+
+            if (ingester != null) {
+                ingester.close();
+            }
+        }
+
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        List<OperationResult> operations = new ArrayList<>();
+        long completed = 0;
+
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            if (weights[i] > 0) {
+                operations.add(new OperationResult(OPERATIONS[i], counts[i].get(), errors[i].get(), latencies[i]));
+                completed += counts[i].get();
+            }
+        }
+
+        return new Result(elapsedMillis, completed, dropped.get(), operations);
+    }
+
+    private int Pick(Random rand) {
+        int roll = rand.nextInt(totalWeight);
+
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            roll -= weights[i];
+
+            if (roll < 0) {
+                return i;
+            }
+        }
+
+        return OPERATIONS.length - 1;
+    }
+
+    private void RunOperation(int operation, Random rand) throws SQLException {
+        if (ingester != null && OPERATIONS[operation].equals("event")) {
+            ingester.Add(Any(locations, rand), Any(packages, rand), "Load test scan.");
+
+            return;
+        }
+
+        try (PooledConnection connection = pool.Borrow()) {
+            switch (OPERATIONS[operation]) {
+                case "event":
+                    tracker.AddEvent(connection, Any(locations, rand), Any(packages, rand), "Load test scan.");
+                    break;
+                case "history":
+                    tracker.EventsForPackage(connection, tracker.PackageId(connection, Any(packages, rand)));
+                    break;
+                case "packages":
+                    tracker.PackagesForCustomerWithEventCounts(connection, tracker.CustomerId(connection, Any(customers, rand)));
+                    break;
+                default:
+                    tracker.EventsForLocationOnDay(
+                            connection,
+                            tracker.LocationId(connection, Any(locations, rand)),
+                            LocalDate.now().minusDays(rand.nextInt(7)));
+                    break;
+            }
+        }
+    }
+
+    private static String Any(List<String> names, Random rand) {
+        return names.get(rand.nextInt(names.size()));
+    }
+
+    // The names of up to sampleSize rows of an (id, name) query.
+    private List<String> Sample(PooledConnection connection, String sqlQuery) throws SQLException {
+        List<String> names = new ArrayList<>();
+        PreparedStatement statement = connection.Prepare(sqlQuery);
+
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (names.size() < sampleSize && resultSet.next()) {
+                names.add(resultSet.getString(2));
+            }
+        }
+
+        return names;
+    }
+}
@@ -0,0 +1,140 @@
+package at.koodi;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from long to long without boxing, for indexes and counters keyed by ids or packed
+ * id pairs. Not thread-safe; Long.MIN_VALUE marks a free slot and cannot be used as a key.
+ */
+public class LongLongMap {
+    public interface Entry {
+        void Accept(long key, long value);
+    }
+
+    private static final long FREE = Long.MIN_VALUE;
+
+    private long[] keys;
+    private long[] values;
+    private int size = 0;
+
+    public LongLongMap() {
+        this(16);
+    }
+
+    public LongLongMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+
+        keys = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(keys, FREE);
+    }
+
+    public static long Key(int high, int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    public static int High(long key) {
+        return (int) (key >>> 32);
+    }
+
+    public static int Low(long key) {
+        return (int) key;
+    }
+
+    public int Size() {
+        return size;
+    }
+
+    public long Get(long key, long missing) {
+        int slot = Slot(key);
+
+        return keys[slot] == FREE ? missing : values[slot];
+    }
+
+    public void Put(long key, long value) {
+        int slot = Slot(key);
+
+        if (keys[slot] == FREE) {
+            Insert(slot, key, value);
+        } else {
+            values[slot] = value;
+        }
+    }
+
+    /** Adds delta to the value of the key, starting from 0; returns the new value. */
+    public long Add(long key, long delta) {
+        int slot = Slot(key);
+
+        if (keys[slot] == FREE) {
+            Insert(slot, key, delta);
+
+            return delta;
+        }
+
+        return values[slot] += delta;
+    }
+
+    /** Adds every value of the other map to this one. */
+    public void AddAll(LongLongMap other) {
+        other.ForEach(this::Add);
+    }
+
+    public void ForEach(Entry entry) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != FREE) {
+                entry.Accept(keys[slot], values[slot]);
+            }
+        }
+    }
+
+    private void Insert(int slot, long key, long value) {
+        if (key == FREE) {
+            throw new IllegalArgumentException("Long.MIN_VALUE cannot be a key");
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+
+        if (++size * 2 > keys.length) {
+            Grow();
+        }
+    }
+
+    // Linear probing from a mixed hash; the table is at most half full, so a free slot is always found.
+    private int Slot(long key) {
+        int mask = keys.length - 1;
+        int slot = (int) Mix(key) & mask;
+
+        while (keys[slot] != FREE && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    private void Grow() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+
+        keys = new long[oldKeys.length * 2];
+        values = new long[oldKeys.length * 2];
+        Arrays.fill(keys, FREE);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int slot = Slot(oldKeys[i]);
+
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static long Mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+
+        return key;
+    }
+}
@@ -0,0 +1,109 @@
+package at.koodi;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Per-operation counters of the data-access layer: calls, errors, rows returned or written, round trips to the
+ * database and a latency histogram. {@link Tracker} records every one of its operations here; other callers
+ * can wrap their own with {@link #Measure}. Recording is lock-free and safe from several threads.
+ *
+ * Round trips are the executions, batches and further result set fetches of the connection's cached statements
+ * while the operation runs (see {@link StatementCache}), so an operation served from a cache counts zero.
+ */
+public class Metrics {
+    public interface Call<T, E extends Exception> {
+        T Run() throws E;
+    }
+
+    public static class Operation {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder roundTrips = new LongAdder();
+        private final LatencyHistogram latencies = new LatencyHistogram();
+
+        public long Calls() {
+            return calls.sum();
+        }
+
+        public long Errors() {
+            return errors.sum();
+        }
+
+        public long Rows() {
+            return rows.sum();
+        }
+
+        public long RoundTrips() {
+            return roundTrips.sum();
+        }
+
+        public LatencyHistogram Latencies() {
+            return latencies;
+        }
+    }
+
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+
+    public Operation Get(String name) {
+        return operations.computeIfAbsent(name, key -> new Operation());
+    }
+
+    /** The operations recorded so far, by name. */
+    public Map<String, Operation> Operations() {
+        return new TreeMap<>(operations);
+    }
+
+    /**
+     * Runs the call and records it under the name. rows tells how many rows the result stands for; pass null
+     * when it stands for none. A call that throws is counted as an error, with its latency.
+     */
+    public <T, E extends Exception> T Measure(String name, PooledConnection connection, ToLongFunction<T> rows, Call<T, E> call) throws E {
+        Operation operation = Get(name);
+        long roundTripsBefore = connection.RoundTrips();
+        long start = System.nanoTime();
+        boolean failed = true;
+
+        try {
+            T result = call.Run();
+
+            if (rows != null) {
+                operation.rows.add(rows.applyAsLong(result));
+            }
+
+            failed = false;
+
+            return result;
+        } finally {
+            operation.latencies.Record(System.nanoTime() - start);
+            operation.roundTrips.add(connection.RoundTrips() - roundTripsBefore);
+            operation.calls.increment();
+
+            if (failed) {
+                operation.errors.increment();
+            }
+        }
+    }
+
+    /** One line per operation, for the console. */
+    public String Dump() {
+        StringBuilder dump = new StringBuilder();
+
+        for (Map.Entry<String, Operation> entry : Operations().entrySet()) {
+            Operation operation = entry.getValue();
+            long calls = operation.Calls();
+
+            dump.append(String.format(
+                    "%-28s %8d calls %6d errors %10d rows %6.2f round trips/call  %s%n",
+                    entry.getKey(), calls, operation.Errors(), operation.Rows(),
+                    calls == 0 ? 0.0 : (double) operation.RoundTrips() / calls,
+                    operation.Latencies().Summary()));
+        }
+
+        return dump.length() == 0 ? "No operations recorded yet.\n" : dump.toString();
+    }
+}
@@ -0,0 +1,193 @@
+package at.koodi;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the operation metrics of a {@link Tracker}, its caches and the {@link ConnectionPool} in the
+ * Prometheus text exposition format. The HTTP service serves them at GET /metrics; with metrics.file set,
+ * {@link #Start} also writes them to that file every metrics.intervalS seconds, replacing it in one move so a
+ * textfile collector never reads half a file.
+ */
+public class MetricsExporter implements AutoCloseable {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final ConnectionPool pool;
+    private final Tracker tracker;
+    private final Path file;
+    private final long intervalSeconds;
+
+    private ScheduledExecutorService writer;
+
+    public MetricsExporter(ConnectionPool pool, Tracker tracker, Settings settings) {
+        this.pool = pool;
+        this.tracker = tracker;
+
+        String fileName = settings.GetString("metrics.file", "");
+        this.file = fileName.isBlank() ? null : Path.of(fileName);
+        this.intervalSeconds = Math.max(1, settings.GetLong("metrics.intervalS", 15));
+    }
+
+    /** The file set by metrics.file, or null. */
+    public Path File() {
+        return file;
+    }
+
+    /** Starts the periodic file export; does nothing without metrics.file. */
+    public void Start() {
+        if (file == null || writer != null) {
+            return;
+        }
+
+        writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-writer");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        writer.scheduleWithFixedDelay(() -> {
+            try {
+                WriteTo(file);
+            } catch (IOException e) {
+                System.err.println("Could not write metrics to " + file + ": " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public void WriteTo(Path target) throws IOException {
+        Path absolute = target.toAbsolutePath();
+        Path temporary = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+
+        Files.writeString(temporary, Render(), StandardCharsets.UTF_8);
+        Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public String Render() {
+        StringBuilder text = new StringBuilder();
+        Map<String, Metrics.Operation> operations = tracker.Metrics().Operations();
+
+        Header(text, "tikape_operation_calls_total", "counter", "Calls of a data-access operation.");
+        operations.forEach((name, operation) -> Sample(text, "tikape_operation_calls_total", "operation", name, operation.Calls()));
+
+        Header(text, "tikape_operation_errors_total", "counter", "Calls of a data-access operation that threw.");
+        operations.forEach((name, operation) -> Sample(text, "tikape_operation_errors_total", "operation", name, operation.Errors()));
+
+        Header(text, "tikape_operation_rows_total", "counter", "Rows returned or written by a data-access operation.");
+        operations.forEach((name, operation) -> Sample(text, "tikape_operation_rows_total", "operation", name, operation.Rows()));
+
+        Header(text, "tikape_operation_round_trips_total", "counter", "Executions, batches and further fetches a data-access operation sent to the database.");
+        operations.forEach((name, operation) -> Sample(text, "tikape_operation_round_trips_total", "operation", name, operation.RoundTrips()));
+
+        Header(text, "tikape_operation_duration_seconds", "summary", "Latency of a data-access operation.");
+        operations.forEach((name, operation) -> Summary(text, "tikape_operation_duration_seconds", "operation=\"" + name + "\"", operation.Latencies()));
+
+        Header(text, "tikape_pool_wait_seconds", "summary", "Time spent waiting to borrow a pooled connection.");
+        Summary(text, "tikape_pool_wait_seconds", "", pool.WaitTimes());
+
+        Header(text, "tikape_pool_borrow_timeouts_total", "counter", "Borrows that gave up waiting for a connection.");
+        Sample(text, "tikape_pool_borrow_timeouts_total", null, null, pool.Timeouts());
+
+        Header(text, "tikape_pool_connections_opened_total", "counter", "Database connections opened by the pool.");
+        Sample(text, "tikape_pool_connections_opened_total", null, null, pool.Opened());
+
+        Header(text, "tikape_pool_connections", "gauge", "Pooled connections by state.");
+        Sample(text, "tikape_pool_connections", "state", "in_use", pool.InUse());
+        Sample(text, "tikape_pool_connections", "state", "idle", pool.Idle());
+        Sample(text, "tikape_pool_connections", "state", "max", pool.MaxSize());
+
+        Header(text, "tikape_slow_statements_total", "counter", "Statement executions written to the slow query log.");
+        Sample(text, "tikape_slow_statements_total", null, null, pool.StatementLog().Logged());
+
+        List<IdCache> idCaches = List.of(tracker.LocationIds(), tracker.CustomerIds(), tracker.PackageIds());
+
+        Header(text, "tikape_id_cache_entries", "gauge", "Entries in a name-to-id cache.");
+        idCaches.forEach(cache -> Sample(text, "tikape_id_cache_entries", "cache", cache.Name(), cache.Size()));
+
+        Header(text, "tikape_id_cache_hits_total", "counter", "Lookups answered by a name-to-id cache.");
+        idCaches.forEach(cache -> Sample(text, "tikape_id_cache_hits_total", "cache", cache.Name(), cache.Hits()));
+
+        Header(text, "tikape_id_cache_misses_total", "counter", "Lookups a name-to-id cache could not answer.");
+        idCaches.forEach(cache -> Sample(text, "tikape_id_cache_misses_total", "cache", cache.Name(), cache.Misses()));
+
+        Header(text, "tikape_id_cache_evictions_total", "counter", "Entries evicted from a name-to-id cache.");
+        idCaches.forEach(cache -> Sample(text, "tikape_id_cache_evictions_total", "cache", cache.Name(), cache.Evictions()));
+
+        TimelineCache timelines = tracker.Timelines();
+
+        Header(text, "tikape_timeline_cache_entries", "gauge", "Package timelines in the cache.");
+        Sample(text, "tikape_timeline_cache_entries", null, null, timelines.Size());
+
+        Header(text, "tikape_timeline_cache_bytes", "gauge", "Estimated heap held by cached timelines.");
+        Sample(text, "tikape_timeline_cache_bytes", null, null, timelines.Bytes());
+
+        Header(text, "tikape_timeline_cache_hits_total", "counter", "Package histories served from the cache.");
+        Sample(text, "tikape_timeline_cache_hits_total", null, null, timelines.Hits());
+
+        Header(text, "tikape_timeline_cache_misses_total", "counter", "Package histories read from the database.");
+        Sample(text, "tikape_timeline_cache_misses_total", null, null, timelines.Misses());
+
+        Header(text, "tikape_timeline_cache_evictions_total", "counter", "Timelines evicted to stay within the memory budget.");
+        Sample(text, "tikape_timeline_cache_evictions_total", null, null, timelines.Evictions());
+
+        Header(text, "tikape_timeline_cache_invalidations_total", "counter", "Timelines dropped because their package got a new event.");
+        Sample(text, "tikape_timeline_cache_invalidations_total", null, null, timelines.Invalidations());
+
+        return text.toString();
+    }
+
+    @Override
+    public void close() {
+        if (writer != null) {
+            writer.shutdownNow();
+        }
+    }
+
+    private static void Header(StringBuilder text, String name, String type, String help) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void Sample(StringBuilder text, String name, String label, String value, long sample) {
+        text.append(name);
+
+        if (label != null) {
+            text.append('{').append(label).append("=\"").append(Escape(value)).append("\"}");
+        }
+
+        text.append(' ').append(sample).append('\n');
+    }
+
+    // Quantiles, sum and count of a histogram in seconds; labels is "" or a list such as operation="x".
+    private static void Summary(StringBuilder text, String name, String labels, LatencyHistogram histogram) {
+        String separator = labels.isEmpty() ? "" : ",";
+
+        for (double quantile : QUANTILES) {
+            text.append(name).append('{').append(labels).append(separator).append("quantile=\"").append(quantile).append("\"} ")
+                    .append(Seconds(histogram.PercentileNanos(quantile * 100))).append('\n');
+        }
+
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+
+        text.append(name).append("_sum").append(braces).append(' ').append(Seconds(histogram.SumNanos())).append('\n');
+        text.append(name).append("_count").append(braces).append(' ').append(histogram.Count()).append('\n');
+    }
+
+    private static String Seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static String Escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,6 @@
+package at.koodi;
+
+import java.sql.Timestamp;
+
+public record PackageEventCount(String trackingCode, long events, Timestamp lastEventAt, String lastLocation) {
+}
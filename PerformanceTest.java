@@ -0,0 +1,341 @@
+package at.koodi;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.IntToLongFunction;
+
+/**
+ * The performance test of the course project: bulk inserts of locations, customers, packages and events,
+ * followed by two rounds of count queries. Sizes come from the perf.* settings and the rows from a
+ * {@link DataGenerator}, so the same seed loads the same data whatever perf.writeThreads is. Each insert stage
+ * splits its rows into perf.writeThreads ranges written in parallel on their own connections. Every executed
+ * batch and every query is timed on its own, so each stage reports latency percentiles besides its total time.
+ */
+public class PerformanceTest {
+    public record StageResult(String name, long elapsedMillis, long rows, LatencyHistogram latencies) {
+        public double RowsPerSecond() {
+            return elapsedMillis == 0 ? rows : rows * 1000.0 / elapsedMillis;
+        }
+    }
+
+    private interface PartitionWriter {
+        // Binds and batches the rows with indexes [from, to).
+        void Write(int from, int to, PreparedStatement statement, Batcher batcher) throws SQLException;
+    }
+
+    private final ConnectionPool pool;
+    private final Dialect dialect;
+
+    private final int locations;
+    private final int customers;
+    private final int packages;
+    private final long events;
+    private final int batchSize;
+    private final int transactionSize;
+    private final int reads;
+    private final int threads;
+    private final int writeThreads;
+    private final double skew;
+    private final int days;
+    private final LocalDate lastDay;
+    private final long seed;
+
+    public PerformanceTest(ConnectionPool pool, Dialect dialect, Settings settings) {
+        this.pool = pool;
+        this.dialect = dialect;
+        this.locations = Math.max(1, settings.GetInt("perf.locations", 1000));
+        this.customers = Math.max(1, settings.GetInt("perf.customers", 1000));
+        this.packages = Math.max(1, settings.GetInt("perf.packages", 1000));
+        this.events = Math.max(0, settings.GetLong("perf.events", 1000L * 1000));
+        this.batchSize = Math.max(1, settings.GetInt("perf.batchSize", 1000));
+        this.transactionSize = Math.max(batchSize, settings.GetInt("perf.transactionSize", 1000));
+        this.reads = Math.max(0, settings.GetInt("perf.reads", 1000));
+        this.threads = Math.max(1, Math.min(settings.GetInt("perf.threads", 1), pool.MaxSize()));
+        this.writeThreads = Math.max(1, Math.min(settings.GetInt("perf.writeThreads", 1), pool.MaxSize()));
+        this.skew = Math.max(0, settings.GetDouble("perf.skew", 1.0));
+        this.days = Math.max(1, settings.GetInt("perf.days", 30));
+        this.lastDay = LocalDate.parse(settings.GetString("perf.lastDay", LocalDate.now().toString()));
+        this.seed = settings.GetLong("perf.seed", new Random().nextLong());
+    }
+
+    public String Describe() {
+        return String.format(
+                "%d locations, %d customers, %d packages, %d events over %d days to %s, skew %.2f, batch %d, transaction %d, "
+                        + "%d writers, %d reads on %d threads, seed %d",
+                locations, customers, packages, events, days, lastDay, skew, batchSize, transactionSize,
+                writeThreads, reads, threads, seed);
+    }
+
+    /** Runs all stages, handing each result to the listener as soon as the stage finishes. */
+    public List<StageResult> Run(Consumer<StageResult> listener) throws Exception {
+        List<StageResult> results = new ArrayList<>();
+        Consumer<StageResult> report = result -> {
+            results.add(result);
+            listener.accept(result);
+        };
+        DataGenerator generator = new DataGenerator(locations, customers, packages, events, skew, lastDay, days, seed);
+
+        report.accept(RunWriteStage("1 locations", dialect.InsertLocation(), Split(locations, i -> i), (from, to, statement, batcher) -> {
+            for (int i = from; i < to; i++) {
+                statement.setString(1, DataGenerator.LocationName(i));
+                batcher.Add();
+            }
+        }));
+
+        report.accept(RunWriteStage("2 customers", dialect.InsertCustomer(), Split(customers, i -> i), (from, to, statement, batcher) -> {
+            for (int i = from; i < to; i++) {
+                statement.setString(1, DataGenerator.CustomerName(i));
+                batcher.Add();
+            }
+        }));
+
+        int[] locationIds = ReadIds(dialect.AllLocationIds(), "P", locations);
+        int[] customerIds = ReadIds(dialect.AllCustomerIds(), "A", customers);
+
+        report.accept(RunWriteStage("3 packages", dialect.InsertPackage(), Split(packages, i -> i), (from, to, statement, batcher) -> {
+            for (int i = from; i < to; i++) {
+                statement.setString(1, DataGenerator.TrackingCode(i));
+                statement.setInt(2, customerIds[generator.CustomerOf(i)]);
+                batcher.Add();
+            }
+        }));
+
+        int[] packageIds = ReadIds(dialect.AllPackageIds(), "TC", packages);
+
+        report.accept(RunWriteStage("4 events", dialect.InsertEventsWithTimestamps(1), Split(packages, generator::EventsBefore), (from, to, statement, batcher) -> {
+            for (int i = from; i < to; i++) {
+                int packageId = packageIds[i];
+
+                generator.ForEachEvent(i, (location, timestamp, description) -> {
+                    statement.setTimestamp(1, timestamp);
+                    statement.setInt(2, packageId);
+                    statement.setInt(3, locationIds[location]);
+                    statement.setString(4, description);
+                    batcher.Add();
+                });
+            }
+        }));
+
+        report.accept(RunReadStage("5 packages per customer", dialect.CountPackagesForCustomer(), customerIds, 5));
+        report.accept(RunReadStage("6 events per package", dialect.CountEventsForPackage(), packageIds, 6));
+
+        return results;
+    }
+
+    // Splits the indexes 1..count into writeThreads ranges of about equal work; work(i) is the work before index i.
+    private int[] Split(int count, IntToLongFunction work) {
+        int[] bounds = new int[writeThreads + 1];
+        long total = work.applyAsLong(count + 1);
+        int index = 1;
+
+        bounds[0] = 1;
+
+        for (int t = 1; t < writeThreads; t++) {
+            long target = total * t / writeThreads;
+
+            while (index <= count && work.applyAsLong(index) < target) {
+                index++;
+            }
+
+            bounds[t] = index;
+        }
+
+        bounds[writeThreads] = count + 1;
+
+        return bounds;
+    }
+
+    // Writes the partitions between the bounds in parallel, each on its own connection and in its own transactions.
+    // One latency sample per executed batch.
+    private StageResult RunWriteStage(String name, String sqlQuery, int[] bounds, PartitionWriter writer) throws Exception {
+        LatencyHistogram latencies = new LatencyHistogram();
+        ExecutorService executor = Executors.newFixedThreadPool(bounds.length - 1);
+        List<Future<Long>> workers = new ArrayList<>();
+
+        var startTime = System.currentTimeMillis();
+
+        for (int t = 0; t + 1 < bounds.length; t++) {
+            int from = bounds[t];
+            int to = bounds[t + 1];
+
+            workers.add(executor.submit(() -> {
+                try (PooledConnection pooled = pool.Borrow()) {
+                    Connection connection = pooled.Connection();
+
+                    connection.setAutoCommit(false);
+
+                    try (Statement sqlStatement = connection.createStatement()) {
+                        for (String sessionQuery : dialect.BulkSessionStart()) {
+                            sqlStatement.execute(sessionQuery);
+                        }
+
+                        PreparedStatement statement = pooled.Prepare(sqlQuery);
+                        Batcher batcher = new Batcher(statement, connection, latencies);
+
+                        writer.Write(from, to, statement, batcher);
+                        batcher.Finish();
+
+                        for (String sessionQuery : dialect.BulkSessionEnd()) {
+                            sqlStatement.execute(sessionQuery);
+                        }
+
+                        return batcher.rows;
+                    } finally {
+                        connection.setAutoCommit(true);
+                    }
+                }
+            }));
+        }
+
+        long rows = 0;
+
+        try {
+            for (Future<Long> worker : workers) {
+                rows += worker.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        return new StageResult(name, System.currentTimeMillis() - startTime, rows, latencies);
+    }
+
+    // Ids of the rows named prefix + 1..count, indexed by that number, so the later stages only use existing keys.
+    private int[] ReadIds(String sqlQuery, String prefix, int count) throws SQLException {
+        int[] ids = new int[count + 1];
+
+        try (PooledConnection pooled = pool.Borrow()) {
+            PreparedStatement statement = pooled.Prepare(sqlQuery);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    int index = IndexOf(resultSet.getString(2), prefix);
+
+                    if (index >= 1 && index <= count) {
+                        ids[index] = resultSet.getInt(1);
+                    }
+                }
+            }
+        }
+
+        for (int i = 1; i <= count; i++) {
+            if (ids[i] == 0) {
+                throw new IllegalStateException("Row " + prefix + i + " is missing after it was inserted");
+            }
+        }
+
+        return ids;
+    }
+
+    // The number after the prefix, or -1 for a name of another shape.
+    private static int IndexOf(String name, String prefix) {
+        if (!name.startsWith(prefix)) {
+            return -1;
+        }
+
+        try {
+            return Integer.parseInt(name.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Adds rows to a JDBC batch, executing it every batchSize rows and committing every transactionSize rows.
+    private class Batcher {
+        private final PreparedStatement statement;
+        private final Connection connection;
+        private final LatencyHistogram latencies;
+
+        private long rows = 0;
+        private int pending = 0;
+        private long uncommitted = 0;
+
+        Batcher(PreparedStatement statement, Connection connection, LatencyHistogram latencies) {
+            this.statement = statement;
+            this.connection = connection;
+            this.latencies = latencies;
+        }
+
+        void Add() throws SQLException {
+            statement.addBatch();
+            pending++;
+            rows++;
+
+            if (pending == batchSize) {
+                Execute(false);
+            }
+        }
+
+        void Finish() throws SQLException {
+            Execute(true);
+        }
+
+        private void Execute(boolean last) throws SQLException {
+            long batchStart = System.nanoTime();
+
+            if (pending > 0) {
+                statement.executeBatch();
+                uncommitted += pending;
+                pending = 0;
+            }
+
+            if (uncommitted >= transactionSize || (last && uncommitted > 0)) {
+                connection.commit();
+                uncommitted = 0;
+            }
+
+            latencies.Record(System.nanoTime() - batchStart);
+        }
+    }
+
+    // Runs the count query for random ids on the configured number of threads, each with its own connection.
+    private StageResult RunReadStage(String name, String sqlQuery, int[] ids, int stage) throws Exception {
+        LatencyHistogram latencies = new LatencyHistogram();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+
+        var startTime = System.currentTimeMillis();
+
+        for (int t = 0; t < threads; t++) {
+            int share = reads / threads + (t < reads % threads ? 1 : 0);
+            Random rand = new Random(seed * 31 + stage * 1000 + t);
+
+            workers.add(executor.submit(() -> {
+                try (PooledConnection pooled = pool.Borrow()) {
+                    for (int i = 0; i < share; i++) {
+                        long queryStart = System.nanoTime();
+
+                        PreparedStatement sqlCommand = pooled.Prepare(sqlQuery);
+                        sqlCommand.setInt(1, ids[1 + rand.nextInt(ids.length - 1)]);
+                        sqlCommand.executeQuery().close();
+
+                        latencies.Record(System.nanoTime() - queryStart);
+                    }
+                }
+
+                return null;
+            }));
+        }
+
+        try {
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        return new StageResult(name, System.currentTimeMillis() - startTime, reads, latencies);
+    }
+}
@@ -0,0 +1,87 @@
+package at.koodi;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A connection borrowed from a {@link ConnectionPool}. Closing it hands the connection back to the pool.
+ */
+public class PooledConnection implements AutoCloseable {
+    private final ConnectionPool pool;
+    private final Connection connection;
+    private final StatementCache statements;
+    private final long createdAt;
+
+    private volatile long lastUsedAt;
+    private boolean borrowed = false;
+
+    PooledConnection(ConnectionPool pool, Connection connection, int statementCacheSize, StatementLog log) {
+        this.pool = pool;
+        this.connection = connection;
+        this.statements = new StatementCache(connection, statementCacheSize, log);
+        this.createdAt = System.currentTimeMillis();
+        this.lastUsedAt = createdAt;
+    }
+
+    public Connection Connection() {
+        return connection;
+    }
+
+    /** Returns a cached statement for the SQL. Do not close it; the cache owns it. */
+    public PreparedStatement Prepare(String sql) throws SQLException {
+        return statements.Prepare(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    }
+
+    public PreparedStatement PrepareReturningKeys(String sql) throws SQLException {
+        return statements.PrepareReturningKeys(sql);
+    }
+
+    /**
+     * Round trips of the statements prepared on this connection so far, as counted by its {@link StatementCache}.
+     * Commits and statements made directly on {@link #Connection()}, such as the DDL of the schema setup, are
+     * not included.
+     */
+    public long RoundTrips() {
+        return statements.RoundTrips();
+    }
+
+    public StatementCache Statements() {
+        return statements;
+    }
+
+    long CreatedAt() {
+        return createdAt;
+    }
+
+    long LastUsedAt() {
+        return lastUsedAt;
+    }
+
+    void MarkBorrowed() {
+        borrowed = true;
+    }
+
+    void MarkReturned() {
+        lastUsedAt = System.currentTimeMillis();
+    }
+
+    void CloseQuietly() {
+        statements.Clear();
+
+        try {
+            connection.close();
+        } catch (Exception e) {
+            // The connection is being thrown away anyway.
+        }
+    }
+
+    @Override
+    public void close() {
+        if (borrowed) {
+            borrowed = false;
+            pool.Release(this);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package at.koodi;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs a script of commands, one per line, on a single connection without prompts:
+ *
+ * <pre>
+ * create
+ * location &lt;description&gt;
+ * customer &lt;name&gt;
+ * package &lt;trackingcode&gt; &lt;customer&gt;
+ * event &lt;location&gt; &lt;trackingcode&gt; &lt;description...&gt;
+ * history &lt;trackingcode&gt;
+ * packages &lt;customer&gt;
+ * day &lt;location&gt; &lt;YYYY-MM-DD&gt;
+ * import &lt;file&gt;
+ * </pre>
+ *
+ * Arguments are separated by spaces; double quotes keep spaces inside one argument. The words after the
+ * tracking code of an event make up its description. Blank lines and lines starting with # are skipped.
+ *
+ * Writes print nothing unless they fail. Commands that fail because of their input (unknown names, duplicates,
+ * bad arguments) are reported on the error stream and the script goes on; a database error stops it. With
+ * script.transactionSize above 1 the commands are committed in groups of that many, and a database error rolls
+ * back the open group and empties the id and timeline caches, which may hold rows of the rolled back commands.
+ * import commits as it goes, so it is refused in such a script rather than committing the open group early.
+ */
+public class ScriptRunner {
+    public record Summary(long commands, long failed, long elapsedMillis, Map<String, Long> counts) {
+        public double CommandsPerSecond() {
+            return elapsedMillis == 0 ? commands : commands * 1000.0 / elapsedMillis;
+        }
+    }
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final Tracker tracker;
+    private final Settings settings;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final int transactionSize;
+
+    public ScriptRunner(Tracker tracker, Settings settings, PrintStream out, PrintStream err) {
+        this.tracker = tracker;
+        this.settings = settings;
+        this.out = out;
+        this.err = err;
+        this.transactionSize = Math.max(1, settings.GetInt("script.transactionSize", 1));
+    }
+
+    public Summary Run(PooledConnection connection, BufferedReader script) throws IOException, SQLException {
+        Map<String, Long> counts = new TreeMap<>();
+        long commands = 0;
+        long failed = 0;
+        long lineNumber = 0;
+        int uncommitted = 0;
+
+        Connection raw = connection.Connection();
+        raw.setAutoCommit(transactionSize == 1);
+
+        var startTime = System.currentTimeMillis();
+
+        try {
+            String line;
+
+            while ((line = script.readLine()) != null) {
+                lineNumber++;
+
+                String trimmed = line.trim();
+
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+
+                List<String> words = Split(trimmed);
+                String command = words.get(0).toLowerCase();
+
+                commands++;
+                counts.merge(command, 1L, Long::sum);
+
+                String error;
+
+                try {
+                    error = Execute(connection, command, words);
+                } catch (SQLException e) {
+                    throw new SQLException("Line " + lineNumber + ": " + e.getMessage(), e.getSQLState(), e.getErrorCode(), e);
+                }
+
+                if (error != null) {
+                    failed++;
+                    err.println("Line " + lineNumber + ": " + error);
+                }
+
+                if (transactionSize > 1 && ++uncommitted >= transactionSize) {
+                    raw.commit();
+                    uncommitted = 0;
+                }
+            }
+
+            if (transactionSize > 1) {
+                raw.commit();
+            }
+        } catch (IOException | SQLException | RuntimeException e) {
+            if (transactionSize > 1) {
+                raw.rollback();
+                tracker.ClearCaches();
+            }
+
+            throw e;
+        } finally {
+            raw.setAutoCommit(true);
+        }
+
+        return new Summary(commands, failed, System.currentTimeMillis() - startTime, counts);
+    }
+
+    // Runs one command. Returns null when it succeeded, otherwise why it failed.
+    private String Execute(PooledConnection connection, String command, List<String> words) throws IOException, SQLException {
+        switch (command) {
+            case "create":
+                tracker.CreateDatabase(connection);
+
+                return null;
+            case "location":
+                if (words.size() != 2) {
+                    return "usage: location <description>";
+                }
+
+                return tracker.AddLocation(connection, words.get(1)) ? null : "location " + words.get(1) + " already exists";
+            case "customer":
+                if (words.size() != 2) {
+                    return "usage: customer <name>";
+                }
+
+                return tracker.AddCustomer(connection, words.get(1)) ? null : "customer " + words.get(1) + " already exists";
+            case "package": {
+                if (words.size() != 3) {
+                    return "usage: package <trackingcode> <customer>";
+                }
+
+                int customerId = tracker.CustomerId(connection, words.get(2));
+
+                if (customerId == -1) {
+                    return "customer " + words.get(2) + " does not exist";
+                }
+
+                return tracker.AddPackage(connection, words.get(1), customerId) ? null : "package " + words.get(1) + " already exists";
+            }
+            case "event": {
+                if (words.size() < 4) {
+                    return "usage: event <location> <trackingcode> <description>";
+                }
+
+                String description = String.join(" ", words.subList(3, words.size()));
+
+                switch (tracker.AddEvent(connection, words.get(1), words.get(2), description)) {
+                    case UNKNOWN_LOCATION:
+                        return "location " + words.get(1) + " does not exist";
+                    case UNKNOWN_PACKAGE:
+                        return "package " + words.get(2) + " does not exist";
+                    default:
+                        return null;
+                }
+            }
+            case "history": {
+                if (words.size() != 2) {
+                    return "usage: history <trackingcode>";
+                }
+
+                int packageId = tracker.PackageId(connection, words.get(1));
+
+                if (packageId == -1) {
+                    return "package " + words.get(1) + " does not exist";
+                }
+
+                tracker.ForEachEventForPackage(connection, packageId, this::Print);
+
+                return null;
+            }
+            case "packages": {
+                if (words.size() != 2) {
+                    return "usage: packages <customer>";
+                }
+
+                int customerId = tracker.CustomerId(connection, words.get(1));
+
+                if (customerId == -1) {
+                    return "customer " + words.get(1) + " does not exist";
+                }
+
+                for (PackageEventCount found : tracker.PackagesForCustomerWithEventCounts(connection, customerId))
+                    out.println(found.trackingCode() + " " + found.events());
+
+                return null;
+            }
+            case "day": {
+                if (words.size() != 3) {
+                    return "usage: day <location> <YYYY-MM-DD>";
+                }
+
+                int locationId = tracker.LocationId(connection, words.get(1));
+
+                if (locationId == -1) {
+                    return "location " + words.get(1) + " does not exist";
+                }
+
+                LocalDate day;
+
+                try {
+                    day = LocalDate.parse(words.get(2));
+                } catch (DateTimeParseException e) {
+                    return "date " + words.get(2) + " is not in YYYY-MM-DD format";
+                }
+
+                tracker.ForEachEventInRange(connection, day.atStartOfDay(), day.plusDays(1).atStartOfDay(), locationId, null, this::Print);
+
+                return null;
+            }
+            case "import": {
+                if (words.size() != 2) {
+                    return "usage: import <file>";
+                }
+
+                if (transactionSize > 1) {
+                    return "import commits its own transactions, so it cannot run with script.transactionSize above 1";
+                }
+
+                var importer = new EventImporter(
+                        tracker.Dialect(), tracker.LocationIds(), tracker.PackageIds(), tracker.Timelines(), settings);
+                var result = importer.Import(connection, Path.of(words.get(1)));
+
+                return result.skipped() + result.malformed() == 0
+                        ? null
+                        : result.skipped() + " rows skipped, " + result.malformed() + " malformed in " + words.get(1);
+            }
+            default:
+                return "unknown command " + command;
+        }
+    }
+
+    private void Print(Event event) {
+        out.println(TIMESTAMP_FORMAT.format(event.timestamp().toLocalDateTime()) + " " + event.description());
+    }
+
+    // Splits on spaces, keeping double-quoted parts together; "" inside quotes is a literal quote.
+    static List<String> Split(String line) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        boolean quoted = false;
+        boolean inWord = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    word.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    word.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+                inWord = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inWord) {
+                    words.add(word.toString());
+                    word.setLength(0);
+                    inWord = false;
+                }
+            } else {
+                word.append(c);
+                inWord = true;
+            }
+        }
+
+        if (inWord) {
+            words.add(word.toString());
+        }
+
+        return words;
+    }
+}
@@ -0,0 +1,81 @@
+package at.koodi;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+public class Settings {
+    private static final String PREFIX = "tikape.";
+
+    private final Properties properties = new Properties();
+
+    public static Settings Load(String fileName) {
+        Settings settings = new Settings();
+
+        if (Files.exists(Path.of(fileName))) {
+            try (InputStream in = new FileInputStream(fileName)) {
+                settings.properties.load(in);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.out.println("Above error when reading " + fileName + ". Using default settings.");
+            }
+        }
+
+        return settings;
+    }
+
+    public String GetString(String key, String defaultValue) {
+        String value = System.getProperty(PREFIX + key);
+
+        if (value == null) {
+            value = properties.getProperty(key);
+        }
+
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public int GetInt(String key, int defaultValue) {
+        return (int) GetLong(key, defaultValue);
+    }
+
+    public long GetLong(String key, long defaultValue) {
+        String value = GetString(key, null);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException nfe) {
+            System.out.println("Setting " + key + " is not a number: " + value + ". Using " + defaultValue);
+
+            return defaultValue;
+        }
+    }
+
+    public double GetDouble(String key, double defaultValue) {
+        String value = GetString(key, null);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException nfe) {
+            System.out.println("Setting " + key + " is not a number: " + value + ". Using " + defaultValue);
+
+            return defaultValue;
+        }
+    }
+
+    public boolean GetBoolean(String key, boolean defaultValue) {
+        String value = GetString(key, null);
+
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
@@ -0,0 +1,169 @@
+package at.koodi;
+
+import java.util.List;
+
+public class SqlServerDialect extends Dialect {
+    @Override
+    public String Name() {
+        return "sqlserver";
+    }
+
+    @Override
+    public String JdbcUrl(Settings settings) {
+        return String.format(
+                "jdbc:sqlserver://%s:1433;database=%s;user=%s;password=%s;encrypt=true;"
+                + "hostNameInCertificate=*.database.windows.net;loginTimeout=30;sendStringParametersAsUnicode=false;",
+                settings.GetString("sqlserver.host", "yourdatabaseaddress.windows.net"),
+                settings.GetString("sqlserver.database", "yourdbname"),
+                settings.GetString("sqlserver.user", "yourusername"),
+                settings.GetString("sqlserver.password", "yourpassword"));
+    }
+
+    @Override
+    public List<String> CreateTables() {
+        return List.of(
+                "IF NOT EXISTS(SELECT * FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = N'Locations')\n"
+                + "BEGIN\n"
+                + "CREATE TABLE Locations(id int identity not null primary key, description varchar(255) not null)\n"
+                + "END;"
+                + "IF NOT EXISTS(SELECT * FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = N'Customers')\n"
+                + "BEGIN\n"
+                + "CREATE TABLE Customers(id int identity not null primary key, name varchar(255) not null)\n"
+                + "END;"
+                + "IF NOT EXISTS(SELECT * FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = N'Packages')\n"
+                + "BEGIN\n"
+                + "CREATE TABLE Packages(id int identity not null primary key, trackingcode varchar(255) not null, customer_id int FOREIGN KEY REFERENCES Customers(id))\n"
+                + "END;"
+                + "IF NOT EXISTS(SELECT * FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = N'Events')\n"
+                + "BEGIN\n"
+                + "CREATE TABLE Events(id int identity not null primary key, timestamp datetime not null default getdate(), package_id int FOREIGN KEY REFERENCES Packages(id), location_id int FOREIGN KEY REFERENCES Locations(id), description varchar(255) not null)\n"
+                + "END;"
+                // No foreign keys or triggers: OUTPUT ... INTO does not allow them on its target.
+                + "IF NOT EXISTS(SELECT * FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = N'EventsArchive')\n"
+                + "BEGIN\n"
+                + "CREATE TABLE EventsArchive(id int not null primary key, timestamp datetime not null, package_id int, location_id int, description varchar(255) not null);\n"
+                + "CREATE INDEX IX_EventsArchive_package_id ON EventsArchive(package_id, timestamp);\n"
+                + "END;"
+                + "IF NOT EXISTS(SELECT * FROM sys.indexes WHERE name = N'IX_EventsArchive_location_id')\n"
+                + "CREATE INDEX IX_EventsArchive_location_id ON EventsArchive(location_id, timestamp);",
+                "IF COL_LENGTH('Packages', 'event_count') IS NULL\n"
+                + "ALTER TABLE Packages ADD event_count bigint not null default 0, last_event_at datetime null, last_location_id int null",
+                // Set-based: one update per statement, however many rows it inserted.
+                "CREATE OR ALTER TRIGGER TR_Events_Counters ON Events AFTER INSERT AS\n"
+                + "BEGIN\n"
+                + "SET NOCOUNT ON;\n"
+                + "WITH latest AS (\n"
+                + "  SELECT package_id, timestamp, location_id,\n"
+                + "    COUNT(*) OVER (PARTITION BY package_id) AS events,\n"
+                + "    ROW_NUMBER() OVER (PARTITION BY package_id ORDER BY timestamp DESC, id DESC) AS position\n"
+                + "  FROM inserted WHERE package_id IS NOT NULL)\n"
+                + "UPDATE p SET event_count = p.event_count + l.events,\n"
+                + "  last_location_id = CASE WHEN p.last_event_at IS NULL OR p.last_event_at <= l.timestamp THEN l.location_id ELSE p.last_location_id END,\n"
+                + "  last_event_at = CASE WHEN p.last_event_at IS NULL OR p.last_event_at <= l.timestamp THEN l.timestamp ELSE p.last_event_at END\n"
+                + "FROM Packages p JOIN latest l ON l.package_id = p.id AND l.position = 1;\n"
+                + "END");
+    }
+
+    @Override
+    public List<String> ClearTables() {
+        return List.of(
+                "DELETE FROM EventsArchive",
+                "DELETE FROM Events",
+                "DELETE FROM Packages",
+                "DELETE FROM Customers",
+                "DELETE FROM Locations",
+                "DBCC CHECKIDENT('Events', RESEED, 0)",
+                "DBCC CHECKIDENT('Packages', RESEED, 0)",
+                "DBCC CHECKIDENT('Customers', RESEED, 0)",
+                "DBCC CHECKIDENT('Locations', RESEED, 0)");
+    }
+
+    // RANGE RIGHT on the first day of each month. The clustered index moves to (timestamp, id) on the partition
+    // scheme, so secondary indexes created afterwards are aligned and a month can be read or emptied on its own;
+    // id stays unique through a nonclustered primary key. Boundaries go in through dynamic SQL because they
+    // are computed from the data and the clock.
+    @Override
+    public List<String> PartitionEventsByMonth(int monthsAhead) {
+        return List.of(
+                "IF NOT EXISTS(SELECT * FROM sys.partition_functions WHERE name = N'PF_Events_Month')\n"
+                + "BEGIN\n"
+                + "DECLARE @first date = (SELECT DATEFROMPARTS(YEAR(m), MONTH(m), 1) FROM (SELECT COALESCE(MIN(timestamp), GETDATE()) AS m FROM Events) x);\n"
+                + "EXEC('CREATE PARTITION FUNCTION PF_Events_Month(datetime) AS RANGE RIGHT FOR VALUES (''' + CONVERT(char(10), @first, 120) + ''')');\n"
+                + "EXEC('CREATE PARTITION SCHEME PS_Events_Month AS PARTITION PF_Events_Month ALL TO ([PRIMARY])');\n"
+                + "END",
+                "DECLARE @month date = (SELECT DATEADD(month, 1, CAST(MAX(value) AS date)) FROM sys.partition_range_values v "
+                + "JOIN sys.partition_functions f ON f.function_id = v.function_id WHERE f.name = N'PF_Events_Month');\n"
+                + "DECLARE @last date = DATEADD(month, " + monthsAhead + ", DATEFROMPARTS(YEAR(GETDATE()), MONTH(GETDATE()), 1));\n"
+                + "WHILE @month <= @last\n"
+                + "BEGIN\n"
+                + "ALTER PARTITION SCHEME PS_Events_Month NEXT USED [PRIMARY];\n"
+                + "EXEC('ALTER PARTITION FUNCTION PF_Events_Month() SPLIT RANGE (''' + CONVERT(char(10), @month, 120) + ''')');\n"
+                + "SET @month = DATEADD(month, 1, @month);\n"
+                + "END",
+                "IF NOT EXISTS(SELECT * FROM sys.indexes i JOIN sys.partition_schemes s ON s.data_space_id = i.data_space_id "
+                + "WHERE i.object_id = OBJECT_ID(N'Events') AND i.index_id = 1)\n"
+                + "BEGIN\n"
+                + "DECLARE @pk sysname = (SELECT name FROM sys.key_constraints WHERE parent_object_id = OBJECT_ID(N'Events') AND type = 'PK');\n"
+                + "IF @pk IS NOT NULL EXEC('ALTER TABLE Events DROP CONSTRAINT ' + QUOTENAME(@pk));\n"
+                + "ALTER TABLE Events ADD CONSTRAINT PK_Events PRIMARY KEY NONCLUSTERED (id) ON [PRIMARY];\n"
+                + "CREATE CLUSTERED INDEX CX_Events_timestamp ON Events(timestamp, id) ON PS_Events_Month(timestamp);\n"
+                + "END");
+    }
+
+    // Each batch is its own short transaction; batches below the lock escalation threshold of 5000 rows keep
+    // to row and page locks. The delete's row count is the first update count, as the DECLARE reports none.
+    @Override
+    public String ArchiveEvents() {
+        return "DECLARE @cutoff datetime = ?; "
+                + "DELETE TOP (?) e "
+                + "OUTPUT deleted.id, deleted.timestamp, deleted.package_id, deleted.location_id, deleted.description "
+                + "INTO EventsArchive(" + EVENT_COLUMNS + ") "
+                + "FROM Events e JOIN Packages p ON p.id = e.package_id "
+                + "WHERE e.timestamp < @cutoff AND p.last_event_at < @cutoff";
+    }
+
+    @Override
+    public String CreateIndex(Index index) {
+        return "IF NOT EXISTS(SELECT * FROM sys.indexes WHERE name = N'" + index.name()
+                + "' AND object_id = OBJECT_ID(N'" + index.table() + "'))\n"
+                + "CREATE INDEX " + index.name() + " ON " + index.table() + "(" + index.columns() + ")"
+                + (index.include() == null ? "" : " INCLUDE (" + index.include() + ")");
+    }
+
+    @Override
+    public String DropIndex(Index index) {
+        return "IF EXISTS(SELECT * FROM sys.indexes WHERE name = N'" + index.name()
+                + "' AND object_id = OBJECT_ID(N'" + index.table() + "'))\n"
+                + "DROP INDEX " + index.name() + " ON " + index.table();
+    }
+
+    // A table with triggers only allows OUTPUT ... INTO, so the ids go through a table variable. NOCOUNT keeps
+    // the insert's row count from coming back ahead of the result set.
+    @Override
+    public String AddEventByNames() {
+        return "SET NOCOUNT ON; "
+                + "DECLARE @added TABLE(package_id int, location_id int); "
+                + "INSERT INTO Events(package_id, location_id, description) "
+                + "OUTPUT inserted.package_id, inserted.location_id INTO @added "
+                + "SELECT TOP (1) p.id, l.id, CAST(? AS varchar(255)) FROM Packages p CROSS JOIN Locations l "
+                + "WHERE p.trackingcode = ? AND l.description = ? ORDER BY p.id DESC, l.id DESC; "
+                + "SET NOCOUNT OFF; "
+                + "SELECT package_id, location_id FROM @added";
+    }
+
+    // SQL Server allows at most 1000 rows in a VALUES list and 2100 parameters per statement.
+    @Override
+    public int MaxValuesRows(int parametersPerRow) {
+        return Math.min(1000, 2099 / parametersPerRow);
+    }
+
+    @Override
+    public List<String> BulkSessionStart() {
+        return List.of("SET NOCOUNT ON");
+    }
+
+    @Override
+    public List<String> BulkSessionEnd() {
+        return List.of("SET NOCOUNT OFF");
+    }
+}
@@ -0,0 +1,198 @@
+package at.koodi;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of prepared statements for one connection, keyed by SQL text and result set type.
+ * Statements handed out stay owned by the cache and must not be closed by the caller;
+ * they are closed when evicted or when the cache is cleared.
+ *
+ * Every statement is wrapped in a proxy that counts the round trips it makes: one per execution or batch, and
+ * one more for each further block of fetchSize rows a result set reads. A query whose fetch size is left to
+ * the driver counts its execution only.
+ */
+public class StatementCache {
+    private record Key(String sql, int resultSetType, int resultSetConcurrency, boolean returnKeys) {
+    }
+
+    private final Connection connection;
+    private final StatementLog log;
+    private final LinkedHashMap<Key, PreparedStatement> statements;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long roundTrips = 0;
+
+    public StatementCache(Connection connection, int maxSize, StatementLog log) {
+        this.connection = connection;
+        this.log = log;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+                if (size() > maxSize) {
+                    CloseQuietly(eldest.getValue());
+
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    public PreparedStatement Prepare(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        return Prepare(new Key(sql, resultSetType, resultSetConcurrency, false));
+    }
+
+    public PreparedStatement PrepareReturningKeys(String sql) throws SQLException {
+        return Prepare(new Key(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, true));
+    }
+
+    private PreparedStatement Prepare(Key key) throws SQLException {
+        PreparedStatement statement = statements.get(key);
+
+        if (statement != null && !statement.isClosed()) {
+            hits++;
+            statement.clearParameters();
+            statement.clearBatch();
+
+            return statement;
+        }
+
+        misses++;
+        statement = log.Wrap(
+                key.returnKeys()
+                        ? connection.prepareStatement(key.sql(), Statement.RETURN_GENERATED_KEYS)
+                        : connection.prepareStatement(key.sql(), key.resultSetType(), key.resultSetConcurrency()),
+                key.sql());
+        statement = (PreparedStatement) Proxy.newProxyInstance(
+                StatementCache.class.getClassLoader(),
+                new Class<?>[] {PreparedStatement.class},
+                new StatementHandler(statement));
+        statements.put(key, statement);
+
+        return statement;
+    }
+
+    public long Hits() {
+        return hits;
+    }
+
+    public long Misses() {
+        return misses;
+    }
+
+    /** Executions, batches and further fetches of the cached statements so far. */
+    public long RoundTrips() {
+        return roundTrips;
+    }
+
+    public void Clear() {
+        for (PreparedStatement statement : statements.values()) {
+            CloseQuietly(statement);
+        }
+
+        statements.clear();
+    }
+
+    private static void CloseQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // Nothing more to do for a statement that is being dropped.
+        }
+    }
+
+    private static Object Invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Counts each execution; the result sets of queries count their further fetches.
+    private class StatementHandler implements InvocationHandler {
+        private final PreparedStatement target;
+
+        StatementHandler(PreparedStatement target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "executeQuery": {
+                    roundTrips++;
+
+                    ResultSet resultSet = (ResultSet) Invoke(target, method, args);
+
+                    // An embedded engine reports no fetch size of its own; count as a server would fetch.
+                    int fetchSize = resultSet.getFetchSize() > 0 ? resultSet.getFetchSize() : target.getFetchSize();
+
+                    return Proxy.newProxyInstance(
+                            StatementCache.class.getClassLoader(),
+                            new Class<?>[] {ResultSet.class},
+                            new ResultSetHandler(resultSet, fetchSize));
+                }
+                case "executeUpdate":
+                case "executeLargeUpdate":
+                case "execute":
+                case "executeBatch":
+                case "executeLargeBatch":
+                    roundTrips++;
+                    break;
+                default:
+                    break;
+            }
+
+            return Invoke(target, method, args);
+        }
+    }
+
+    // The execution fetched the first block of rows; reading past each further block costs one more round trip.
+    private class ResultSetHandler implements InvocationHandler {
+        private final ResultSet target;
+        private final int fetchSize;
+
+        private long rows = 0;
+        private boolean done = false;
+
+        ResultSetHandler(ResultSet target, int fetchSize) {
+            this.target = target;
+            this.fetchSize = fetchSize;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (done || !method.getName().equals("next")) {
+                return Invoke(target, method, args);
+            }
+
+            Object result = Invoke(target, method, args);
+
+            // Also the fetch that only finds the end after a full block.
+            if (fetchSize > 0 && rows > 0 && rows % fetchSize == 0) {
+                roundTrips++;
+            }
+
+            if (Boolean.TRUE.equals(result)) {
+                rows++;
+            } else {
+                done = true;
+            }
+
+            return result;
+        }
+    }
+}
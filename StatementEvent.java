@@ -0,0 +1,31 @@
+package at.koodi;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Java Flight Recorder event for one statement execution, emitted by {@link StatementLog}. */
+@Name("at.koodi.Statement")
+@Label("JDBC Statement")
+@Category({"tikape", "Database"})
+@Description("One execution of a prepared statement, until its result set was read or closed")
+@StackTrace(false)
+class StatementEvent extends Event {
+    @Label("SQL")
+    String sql;
+
+    @Label("Parameters")
+    String parameters;
+
+    @Label("Rows")
+    long rows;
+
+    @Label("Batch Size")
+    int batchSize;
+
+    @Label("Failed")
+    boolean failed;
+}
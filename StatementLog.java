@@ -0,0 +1,402 @@
+package at.koodi;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Slow query log. When enabled, every statement a {@link StatementCache} prepares is wrapped in a proxy that
+ * keeps the bound parameters and times each execution up to the close of its result set. Executions that take
+ * at least slowlog.thresholdMs, or fail, are written as one line with their SQL, parameters, rows and elapsed
+ * time to slowlog.file (standard error when unset). Only every slowlog.sampleEvery-th logged line carries the
+ * parameters; slowlog.params chooses whether they are shown in full, masked (strings replaced by their length
+ * and hash, so equal values can still be matched across lines) or not at all.
+ *
+ * With slowlog.jfr=true every execution is also emitted as an at.koodi.Statement Java Flight Recorder event,
+ * which a recording only keeps when it is running and the event's own threshold is met.
+ */
+public class StatementLog implements AutoCloseable {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+    private static final int MAX_SQL_LENGTH = 500;
+    private static final int MAX_VALUE_LENGTH = 100;
+
+    private final long thresholdNanos;
+    private final int sampleEvery;
+    private final String params;
+    private final boolean jfr;
+    private final PrintStream out;
+
+    private final AtomicLong logged = new AtomicLong();
+
+    public StatementLog(Settings settings) {
+        long thresholdMillis = settings.GetLong("slowlog.thresholdMs", -1);
+
+        this.thresholdNanos = thresholdMillis < 0 ? -1 : thresholdMillis * 1_000_000;
+        this.sampleEvery = Math.max(1, settings.GetInt("slowlog.sampleEvery", 1));
+        this.params = settings.GetString("slowlog.params", "masked").toLowerCase();
+        this.jfr = settings.GetBoolean("slowlog.jfr", false);
+
+        if (!params.equals("full") && !params.equals("masked") && !params.equals("none")) {
+            throw new IllegalArgumentException("Unknown slowlog.params " + params + ", expected full, masked or none");
+        }
+
+        String file = settings.GetString("slowlog.file", "");
+
+        if (thresholdNanos < 0 || file.isEmpty()) {
+            this.out = System.err;
+        } else {
+            try {
+                this.out = new PrintStream(new FileOutputStream(file, true), true, StandardCharsets.UTF_8);
+            } catch (FileNotFoundException e) {
+                throw new IllegalArgumentException("Cannot open slowlog.file " + file + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    public boolean Enabled() {
+        return thresholdNanos >= 0 || jfr;
+    }
+
+    /** Slow or failed executions written to the log so far. */
+    public long Logged() {
+        return logged.get();
+    }
+
+    /** Returns the statement wrapped for logging, or the statement itself when the log is off. */
+    public PreparedStatement Wrap(PreparedStatement statement, String sql) {
+        if (!Enabled()) {
+            return statement;
+        }
+
+        return (PreparedStatement) Proxy.newProxyInstance(
+                StatementLog.class.getClassLoader(),
+                new Class<?>[] {PreparedStatement.class},
+                new StatementHandler(statement, sql));
+    }
+
+    @Override
+    public void close() {
+        if (out != System.err) {
+            out.close();
+        }
+    }
+
+    // One execution, from the call that sent it to the close of its result set.
+    private class Execution {
+        private final String sql;
+        private final Object[] parameters;
+        private final int batchSize;
+        private final long start = System.nanoTime();
+        private final StatementEvent event;
+
+        private long rows = 0;
+        private boolean finished = false;
+
+        Execution(String sql, Object[] parameters, int batchSize) {
+            this.sql = sql;
+            this.parameters = parameters;
+            this.batchSize = batchSize;
+            this.event = jfr ? new StatementEvent() : null;
+
+            if (event != null) {
+                event.begin();
+            }
+        }
+
+        void Finish(Throwable error) {
+            if (finished) {
+                return;
+            }
+
+            finished = true;
+
+            long elapsed = System.nanoTime() - start;
+
+            if (event != null) {
+                event.end();
+
+                if (event.shouldCommit()) {
+                    event.sql = sql;
+                    event.parameters = params.equals("none") ? null : FormatParameters(parameters);
+                    event.rows = rows;
+                    event.batchSize = batchSize;
+                    event.failed = error != null;
+                    event.commit();
+                }
+            }
+
+            if (thresholdNanos >= 0 && (elapsed >= thresholdNanos || error != null)) {
+                Write(this, elapsed, error);
+            }
+        }
+    }
+
+    private void Write(Execution execution, long elapsedNanos, Throwable error) {
+        long number = logged.getAndIncrement();
+
+        StringBuilder line = new StringBuilder()
+                .append(TIME_FORMAT.format(LocalDateTime.now()))
+                .append(error == null ? " slow " : " failed ")
+                .append(String.format("%.1f ms", elapsedNanos / 1e6));
+
+        if (error == null) {
+            line.append(", ").append(execution.rows).append(execution.batchSize > 0 ? " rows updated" : " rows");
+        } else {
+            line.append(", ").append(error.getMessage());
+        }
+
+        if (execution.batchSize > 0) {
+            line.append(", batch of ").append(execution.batchSize);
+        }
+
+        line.append(": ").append(Truncate(execution.sql.replaceAll("\\s+", " ").trim(), MAX_SQL_LENGTH));
+
+        if (!params.equals("none") && number % sampleEvery == 0) {
+            line.append(" params ").append(FormatParameters(execution.parameters));
+        }
+
+        synchronized (out) {
+            out.println(line);
+        }
+    }
+
+    private String FormatParameters(Object[] parameters) {
+        StringBuilder text = new StringBuilder("[");
+
+        for (int i = 1; i < parameters.length; i++) {
+            if (text.length() > 1) {
+                text.append(", ");
+            }
+
+            text.append(i).append('=').append(FormatValue(parameters[i]));
+        }
+
+        return text.append(']').toString();
+    }
+
+    private String FormatValue(Object value) {
+        if (value == null) {
+            return "null";
+        }
+
+        if (value instanceof byte[] bytes) {
+            return "<" + bytes.length + " bytes>";
+        }
+
+        if (!(value instanceof String text)) {
+            return value.toString();
+        }
+
+        if (params.equals("masked")) {
+            return "<" + text.length() + " chars #" + Integer.toHexString(text.hashCode()) + ">";
+        }
+
+        return "'" + Truncate(text, MAX_VALUE_LENGTH).replace("'", "''") + "'";
+    }
+
+    private static String Truncate(String text, int length) {
+        return text.length() <= length ? text : text.substring(0, length) + "...";
+    }
+
+    private static Object Invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Keeps the bound parameters of a statement and times its executions.
+    private class StatementHandler implements InvocationHandler {
+        private final PreparedStatement target;
+        private final String sql;
+
+        private Object[] parameters = new Object[8];
+        private Object[] firstBatchRow = null;
+        private int batchSize = 0;
+
+        StatementHandler(PreparedStatement target, String sql) {
+            this.target = target;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+
+            if (method.getDeclaringClass() == PreparedStatement.class
+                    && name.startsWith("set")
+                    && args != null && args.length >= 2 && args[0] instanceof Integer index) {
+                Bind(index, name.equals("setNull") ? null : args[1]);
+
+                return Invoke(target, method, args);
+            }
+
+            boolean noArgs = args == null || args.length == 0;
+
+            switch (name) {
+                case "clearParameters":
+                    Arrays.fill(parameters, null);
+                    break;
+                case "addBatch":
+                    if (noArgs && batchSize++ == 0) {
+                        firstBatchRow = parameters.clone();
+                    }
+                    break;
+                case "clearBatch":
+                    batchSize = 0;
+                    firstBatchRow = null;
+                    break;
+                case "executeQuery":
+                    if (noArgs) {
+                        Execution execution = new Execution(sql, Bound(parameters), 0);
+
+                        try {
+                            ResultSet resultSet = (ResultSet) Invoke(target, method, args);
+
+                            return Proxy.newProxyInstance(
+                                    StatementLog.class.getClassLoader(),
+                                    new Class<?>[] {ResultSet.class},
+                                    new ResultSetHandler(resultSet, execution));
+                        } catch (Throwable e) {
+                            execution.Finish(e);
+
+                            throw e;
+                        }
+                    }
+                    break;
+                case "executeUpdate":
+                case "executeLargeUpdate":
+                case "execute":
+                    if (noArgs) {
+                        return Timed(new Execution(sql, Bound(parameters), 0), method, args);
+                    }
+                    break;
+                case "executeBatch":
+                case "executeLargeBatch": {
+                    Execution execution = new Execution(sql, Bound(firstBatchRow == null ? parameters : firstBatchRow), batchSize);
+
+                    batchSize = 0;
+                    firstBatchRow = null;
+
+                    return Timed(execution, method, args);
+                }
+                default:
+                    break;
+            }
+
+            return Invoke(target, method, args);
+        }
+
+        private Object Timed(Execution execution, Method method, Object[] args) throws Throwable {
+            try {
+                Object result = Invoke(target, method, args);
+
+                execution.rows = Rows(result);
+                execution.Finish(null);
+
+                return result;
+            } catch (Throwable e) {
+                execution.Finish(e);
+
+                throw e;
+            }
+        }
+
+        private void Bind(int index, Object value) {
+            if (index >= parameters.length) {
+                parameters = Arrays.copyOf(parameters, Math.max(index + 1, parameters.length * 2));
+            }
+
+            parameters[index] = value;
+        }
+
+        // The parameters up to the highest one bound; index 0 is unused.
+        private Object[] Bound(Object[] values) {
+            int length = values.length;
+
+            while (length > 1 && values[length - 1] == null) {
+                length--;
+            }
+
+            return Arrays.copyOf(values, length);
+        }
+
+        private static long Rows(Object result) {
+            if (result instanceof Integer count) {
+                return count;
+            }
+
+            if (result instanceof Long count) {
+                return count;
+            }
+
+            long rows = 0;
+
+            if (result instanceof int[] counts) {
+                for (int count : counts) {
+                    rows += Math.max(0, count);
+                }
+            } else if (result instanceof long[] counts) {
+                for (long count : counts) {
+                    rows += Math.max(0, count);
+                }
+            }
+
+            return rows;
+        }
+    }
+
+    // Counts the rows read and ends the execution when the result set is exhausted or closed.
+    private static class ResultSetHandler implements InvocationHandler {
+        private final ResultSet target;
+        private final Execution execution;
+
+        ResultSetHandler(ResultSet target, Execution execution) {
+            this.target = target;
+            this.execution = execution;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result;
+
+            try {
+                result = Invoke(target, method, args);
+            } catch (SQLException e) {
+                execution.Finish(e);
+
+                throw e;
+            }
+
+            switch (method.getName()) {
+                case "next":
+                    if (Boolean.TRUE.equals(result)) {
+                        execution.rows++;
+                    } else {
+                        execution.Finish(null);
+                    }
+                    break;
+                case "close":
+                    execution.Finish(null);
+                    break;
+                default:
+                    break;
+            }
+
+            return result;
+        }
+    }
+}
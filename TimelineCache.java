@@ -0,0 +1,151 @@
+package at.koodi;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of package timelines: package id to the package's events, oldest first. The bound is an
+ * estimate of the memory held by the cached events rather than an entry count, so a few long histories
+ * cannot crowd out the memory budget. Writes through {@link Tracker} and {@link EventImporter} invalidate the
+ * timeline of the package they add to; writes from other processes are not seen.
+ */
+public class TimelineCache {
+    // Rough heap cost of one cached event without its description, and of one map entry.
+    private static final long EVENT_BYTES = 80;
+    private static final long ENTRY_BYTES = 96;
+
+    private final long maxBytes;
+    private final int maxEvents;
+    private final LinkedHashMap<Integer, List<Event>> timelines = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes = 0;
+    private long generation = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    public TimelineCache(long maxBytes, int maxEvents) {
+        this.maxBytes = maxBytes;
+        this.maxEvents = maxEvents;
+    }
+
+    public boolean Enabled() {
+        return maxBytes > 0 && maxEvents > 0;
+    }
+
+    /** Longest timeline that is cached; longer ones are always streamed from the database. */
+    public int MaxEvents() {
+        return maxEvents;
+    }
+
+    public synchronized List<Event> Get(int packageId) {
+        List<Event> events = timelines.get(packageId);
+
+        if (events == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+
+        return events;
+    }
+
+    /**
+     * Marks the start of a database read. Pass the result to {@link #Put} so a timeline read before a
+     * concurrent invalidation is not cached.
+     */
+    public synchronized long Generation() {
+        return generation;
+    }
+
+    public synchronized void Put(int packageId, List<Event> events, long readAt) {
+        if (readAt != generation || events.size() > maxEvents) {
+            return;
+        }
+
+        long size = SizeOf(events);
+
+        if (size > maxBytes) {
+            return;
+        }
+
+        List<Event> previous = timelines.put(packageId, List.copyOf(events));
+
+        if (previous != null) {
+            bytes -= SizeOf(previous);
+        }
+
+        bytes += size;
+
+        var iterator = timelines.entrySet().iterator();
+
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Integer, List<Event>> eldest = iterator.next();
+
+            bytes -= SizeOf(eldest.getValue());
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void Invalidate(int packageId) {
+        generation++;
+
+        List<Event> removed = timelines.remove(packageId);
+
+        if (removed != null) {
+            bytes -= SizeOf(removed);
+            invalidations++;
+        }
+    }
+
+    public synchronized void Clear() {
+        generation++;
+        timelines.clear();
+        bytes = 0;
+    }
+
+    public synchronized int Size() {
+        return timelines.size();
+    }
+
+    /** Estimated heap held by the cached timelines. */
+    public synchronized long Bytes() {
+        return bytes;
+    }
+
+    public synchronized long Hits() {
+        return hits;
+    }
+
+    public synchronized long Misses() {
+        return misses;
+    }
+
+    public synchronized long Evictions() {
+        return evictions;
+    }
+
+    public synchronized long Invalidations() {
+        return invalidations;
+    }
+
+    public synchronized String Stats() {
+        return "Timelines: " + timelines.size() + " entries, " + bytes / 1024 + "/" + maxBytes / 1024 + " KiB, "
+                + hits + " hits, " + misses + " misses, " + evictions + " evictions, "
+                + invalidations + " invalidations";
+    }
+
+    private static long SizeOf(List<Event> events) {
+        long size = ENTRY_BYTES;
+
+        for (Event event : events) {
+            size += EVENT_BYTES + 2L * event.description().length();
+        }
+
+        return size;
+    }
+}
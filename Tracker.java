@@ -0,0 +1,588 @@
+package at.koodi;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The data-access operations of the app, without any console output. Every method runs on a connection
+ * the caller has borrowed, so several operations can share one connection or run in parallel on several.
+ */
+public class Tracker {
+    private final Dialect dialect;
+    private final IdCache locationIds;
+    private final IdCache customerIds;
+    private final IdCache packageIds;
+    private final TimelineCache timelines;
+    private final int fetchSize;
+    private final int partitionMonthsAhead;
+    private final Metrics metrics = new Metrics();
+
+    public Tracker(Dialect dialect, Settings settings) {
+        this.dialect = dialect;
+
+        int idCacheSize = settings.GetInt("cache.ids.size", 100000);
+        this.locationIds = new IdCache("Locations", idCacheSize);
+        this.customerIds = new IdCache("Customers", idCacheSize);
+        this.packageIds = new IdCache("Packages", idCacheSize);
+        this.timelines = new TimelineCache(
+                settings.GetLong("cache.timeline.bytes", 64L * 1024 * 1024),
+                settings.GetInt("cache.timeline.maxEvents", 1000));
+        this.fetchSize = Math.max(0, settings.GetInt("read.fetchSize", 1000));
+        this.partitionMonthsAhead = settings.GetBoolean("events.partitionByMonth", false)
+                ? Math.max(0, settings.GetInt("events.partitionMonthsAhead", 3))
+                : -1;
+    }
+
+    public Dialect Dialect() {
+        return dialect;
+    }
+
+    public IdCache LocationIds() {
+        return locationIds;
+    }
+
+    public IdCache CustomerIds() {
+        return customerIds;
+    }
+
+    public IdCache PackageIds() {
+        return packageIds;
+    }
+
+    public TimelineCache Timelines() {
+        return timelines;
+    }
+
+    /** Calls, errors, rows, round trips and latencies of the operations below, by operation. */
+    public Metrics Metrics() {
+        return metrics;
+    }
+
+    /**
+     * Creates the schema, backfilling the package event counters when an older schema gets them added. With
+     * events.partitionByMonth the Events table is partitioned by month where the backend supports it.
+     */
+    public void CreateDatabase(PooledConnection connection) throws SQLException {
+        metrics.Measure("create_database", connection, null, () -> {
+            try (var statement = connection.Connection().createStatement()) {
+                boolean hadCounters = Succeeds(statement, dialect.ProbePackageCounters());
+
+                for (String sqlQuery : dialect.CreateTables()) {
+                    statement.execute(sqlQuery);
+                }
+
+                if (!hadCounters) {
+                    statement.execute(dialect.RebuildPackageCounters());
+                }
+
+                if (partitionMonthsAhead >= 0) {
+                    for (String sqlQuery : dialect.PartitionEventsByMonth(partitionMonthsAhead)) {
+                        statement.execute(sqlQuery);
+                    }
+                }
+            }
+
+            return null;
+        });
+    }
+
+    public void CreateIndexes(PooledConnection connection) throws SQLException {
+        metrics.Measure("create_indexes", connection, null, () -> {
+            try (var statement = connection.Connection().createStatement()) {
+                for (Dialect.Index index : dialect.SecondaryIndexes()) {
+                    statement.execute(dialect.CreateIndex(index));
+                }
+            }
+
+            return null;
+        });
+    }
+
+    public void DropIndexes(PooledConnection connection) throws SQLException {
+        metrics.Measure("drop_indexes", connection, null, () -> {
+            try (var statement = connection.Connection().createStatement()) {
+                for (Dialect.Index index : dialect.SecondaryIndexes()) {
+                    statement.execute(dialect.DropIndex(index));
+                }
+            }
+
+            return null;
+        });
+    }
+
+    /** Deletes every row, restarts the ids from 1 and forgets the cached ids. */
+    public void ClearTables(PooledConnection connection) throws SQLException {
+        metrics.Measure("clear_tables", connection, null, () -> {
+            try (var statement = connection.Connection().createStatement()) {
+                for (String sqlQuery : dialect.ClearTables()) {
+                    statement.execute(sqlQuery);
+                }
+            }
+
+            return null;
+        });
+
+        ClearCaches();
+    }
+
+    /** Forgets the cached ids and timelines, e.g. after a rollback that may have undone rows they hold. */
+    public void ClearCaches() {
+        locationIds.Clear();
+        customerIds.Clear();
+        packageIds.Clear();
+        timelines.Clear();
+    }
+
+    public int WarmUpIdCaches(PooledConnection connection) throws SQLException {
+        return metrics.Measure("warm_up_id_caches", connection, loaded -> loaded, () ->
+                locationIds.WarmUp(connection, dialect.AllLocationIds())
+                + customerIds.WarmUp(connection, dialect.AllCustomerIds())
+                + packageIds.WarmUp(connection, dialect.AllPackageIds()));
+    }
+
+    /** Returns the id of the location, or -1 when it does not exist. */
+    public int LocationId(PooledConnection connection, String location) throws SQLException {
+        return metrics.Measure("location_id", connection, Tracker::Found, () ->
+                ResolveId(connection, locationIds, dialect.FindLocation(), location));
+    }
+
+    public int CustomerId(PooledConnection connection, String customer) throws SQLException {
+        return metrics.Measure("customer_id", connection, Tracker::Found, () ->
+                ResolveId(connection, customerIds, dialect.FindCustomer(), customer));
+    }
+
+    public int PackageId(PooledConnection connection, String trackingCode) throws SQLException {
+        return metrics.Measure("package_id", connection, Tracker::Found, () ->
+                ResolveId(connection, packageIds, dialect.FindPackage(), trackingCode));
+    }
+
+    /** Returns false when a location with the description already exists. */
+    public boolean AddLocation(PooledConnection connection, String location) throws SQLException {
+        return metrics.Measure("add_location", connection, Tracker::Added, () -> {
+            PreparedStatement statement = connection.PrepareReturningKeys(dialect.AddLocation());
+            statement.setString(1, location);
+            statement.setString(2, location);
+
+            return InsertIfMissing(statement, locationIds, location);
+        });
+    }
+
+    public boolean AddCustomer(PooledConnection connection, String name) throws SQLException {
+        return metrics.Measure("add_customer", connection, Tracker::Added, () -> {
+            PreparedStatement statement = connection.PrepareReturningKeys(dialect.AddCustomer());
+            statement.setString(1, name);
+            statement.setString(2, name);
+
+            return InsertIfMissing(statement, customerIds, name);
+        });
+    }
+
+    /** Returns false when a package with the tracking code already exists. */
+    public boolean AddPackage(PooledConnection connection, String trackingCode, int customerId) throws SQLException {
+        return metrics.Measure("add_package", connection, Tracker::Added, () -> {
+            PreparedStatement statement = connection.PrepareReturningKeys(dialect.AddPackage());
+            statement.setString(1, trackingCode);
+            statement.setInt(2, customerId);
+            statement.setString(3, trackingCode);
+
+            return InsertIfMissing(statement, packageIds, trackingCode);
+        });
+    }
+
+    public EventResult AddEvent(PooledConnection connection, String location, String trackingCode, String description) throws SQLException {
+        return metrics.Measure("add_event", connection, result -> result == EventResult.ADDED ? 1 : 0, () ->
+                InsertEvent(connection, location, trackingCode, description));
+    }
+
+    // One round trip either way: a plain insert when both ids are cached, otherwise an insert that
+    // resolves the names itself. Only a failed insert pays for the lookups that tell which name was unknown.
+    private EventResult InsertEvent(PooledConnection connection, String location, String trackingCode, String description) throws SQLException {
+        Integer locationId = locationIds.Get(location);
+        Integer packageId = packageIds.Get(trackingCode);
+
+        if (locationId != null && packageId != null) {
+            PreparedStatement statement = connection.Prepare(dialect.AddEvent());
+            statement.setInt(1, packageId);
+            statement.setInt(2, locationId);
+            statement.setString(3, description);
+
+            statement.executeUpdate();
+            timelines.Invalidate(packageId);
+
+            return EventResult.ADDED;
+        }
+
+        PreparedStatement statement = connection.Prepare(dialect.AddEventByNames());
+        statement.setString(1, description);
+        statement.setString(2, trackingCode);
+        statement.setString(3, location);
+
+        try (ResultSet resultSet = statement.executeQuery()) {
+            if (resultSet.next()) {
+                packageIds.Put(trackingCode, resultSet.getInt(1));
+                locationIds.Put(location, resultSet.getInt(2));
+                timelines.Invalidate(resultSet.getInt(1));
+
+                return EventResult.ADDED;
+            }
+        }
+
+        return ResolveId(connection, locationIds, dialect.FindLocation(), location) == -1
+                ? EventResult.UNKNOWN_LOCATION
+                : EventResult.UNKNOWN_PACKAGE;
+    }
+
+    public List<Event> EventsForPackage(PooledConnection connection, int packageId) throws SQLException {
+        List<Event> events = new ArrayList<>();
+        ForEachEventForPackage(connection, packageId, events::add);
+
+        return events;
+    }
+
+    /**
+     * Hands the events of the package to the callback, oldest first. Returns the number of events. Served from
+     * the timeline cache when it holds the package; otherwise the events are streamed from the database and
+     * cached when there are at most cache.timeline.maxEvents of them.
+     */
+    public long ForEachEventForPackage(PooledConnection connection, int packageId, Consumer<Event> callback) throws SQLException {
+        return metrics.Measure("events_for_package", connection, count -> count, () ->
+                ReadEventsForPackage(connection, packageId, callback));
+    }
+
+    private long ReadEventsForPackage(PooledConnection connection, int packageId, Consumer<Event> callback) throws SQLException {
+        if (!timelines.Enabled()) {
+            try (EventCursor cursor = StreamEventsForPackage(connection, packageId)) {
+                return ForEach(cursor, callback);
+            }
+        }
+
+        List<Event> cached = timelines.Get(packageId);
+
+        if (cached != null) {
+            cached.forEach(callback);
+
+            return cached.size();
+        }
+
+        long readAt = timelines.Generation();
+        List<Event> events = new ArrayList<>();
+        long count;
+
+        try (EventCursor cursor = StreamEventsForPackage(connection, packageId)) {
+            count = ForEach(cursor, event -> {
+                if (events.size() <= timelines.MaxEvents()) {
+                    events.add(event);
+                }
+
+                callback.accept(event);
+            });
+        }
+
+        if (count <= timelines.MaxEvents()) {
+            timelines.Put(packageId, events, readAt);
+        }
+
+        return count;
+    }
+
+    public EventCursor StreamEventsForPackage(PooledConnection connection, int packageId) throws SQLException {
+        PreparedStatement statement = PrepareRead(connection, dialect.EventsForPackage());
+        statement.setInt(1, packageId);
+        statement.setInt(2, packageId);
+
+        return new EventCursor(statement.executeQuery());
+    }
+
+    /** The latest events of the package, size at a time. Pass null for the first page, then the previous nextToken. */
+    public EventPage EventPageForPackage(PooledConnection connection, int packageId, String token, int size) throws SQLException {
+        return metrics.Measure("event_page_for_package", connection, page -> page.events().size(), () ->
+                ReadPage(connection, null, packageId, null, null, token, size));
+    }
+
+    public EventPage EventPageForLocationOnDay(PooledConnection connection, int locationId, LocalDate day, String token, int size) throws SQLException {
+        return metrics.Measure("event_page_for_location_on_day", connection, page -> page.events().size(), () ->
+                ReadPage(connection, locationId, null, day.atStartOfDay(), day.plusDays(1).atStartOfDay(), token, size));
+    }
+
+    public List<PackageEventCount> PackagesForCustomerWithEventCounts(PooledConnection connection, int customerId) throws SQLException {
+        return metrics.Measure("packages_for_customer", connection, List::size, () ->
+                ReadPackagesForCustomer(connection, customerId));
+    }
+
+    private List<PackageEventCount> ReadPackagesForCustomer(PooledConnection connection, int customerId) throws SQLException {
+        PreparedStatement statement = PrepareRead(connection, dialect.PackagesForCustomerWithEventCounts());
+        statement.setInt(1, customerId);
+
+        List<PackageEventCount> packages = new ArrayList<>();
+
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next())
+                packages.add(new PackageEventCount(
+                        resultSet.getString(1),
+                        resultSet.getLong(2),
+                        resultSet.getTimestamp(3),
+                        resultSet.getString(4)));
+        }
+
+        return packages;
+    }
+
+    public List<Event> EventsForLocationOnDay(PooledConnection connection, int locationId, LocalDate day) throws SQLException {
+        return metrics.Measure("events_for_location_on_day", connection, List::size, () -> {
+            List<Event> events = new ArrayList<>();
+
+            try (EventCursor cursor = StreamEventsInRange(connection, day.atStartOfDay(), day.plusDays(1).atStartOfDay(), locationId, null)) {
+                ForEach(cursor, events::add);
+            }
+
+            return events;
+        });
+    }
+
+    /** Events in the half-open range [from, to), optionally only for one location and/or package, oldest first. */
+    public List<Event> EventsInRange(PooledConnection connection, LocalDateTime from, LocalDateTime to, Integer locationId, Integer packageId) throws SQLException {
+        List<Event> events = new ArrayList<>();
+        ForEachEventInRange(connection, from, to, locationId, packageId, events::add);
+
+        return events;
+    }
+
+    public long ForEachEventInRange(PooledConnection connection, LocalDateTime from, LocalDateTime to, Integer locationId, Integer packageId, Consumer<Event> callback) throws SQLException {
+        return metrics.Measure("events_in_range", connection, count -> count, () -> {
+            try (EventCursor cursor = StreamEventsInRange(connection, from, to, locationId, packageId)) {
+                return ForEach(cursor, callback);
+            }
+        });
+    }
+
+    public EventCursor StreamEventsInRange(PooledConnection connection, LocalDateTime from, LocalDateTime to, Integer locationId, Integer packageId) throws SQLException {
+        PreparedStatement statement = PrepareRead(connection, dialect.EventsInRange(locationId != null, packageId != null));
+
+        int parameter = 1;
+
+        // Once for Events and once for EventsArchive.
+        for (int table = 0; table < 2; table++) {
+            if (locationId != null) {
+                statement.setInt(parameter++, locationId);
+            }
+
+            if (packageId != null) {
+                statement.setInt(parameter++, packageId);
+            }
+
+            statement.setTimestamp(parameter++, Timestamp.valueOf(from));
+            statement.setTimestamp(parameter++, Timestamp.valueOf(to));
+        }
+
+        return new EventCursor(statement.executeQuery());
+    }
+
+    // Reads one row more than the page size to tell whether another page follows.
+    private EventPage ReadPage(PooledConnection connection, Integer locationId, Integer packageId, LocalDateTime from, LocalDateTime to, String token, int size) throws SQLException {
+        if (size < 1) {
+            throw new IllegalArgumentException("Page size must be positive: " + size);
+        }
+
+        EventPage.Key key = token == null ? null : EventPage.ParseToken(token);
+
+        PreparedStatement statement = connection.Prepare(
+                dialect.EventsPage(locationId != null, packageId != null, from != null, key != null));
+
+        int parameter = 1;
+
+        // Once for Events and once for EventsArchive, then the size of the merged page.
+        for (int table = 0; table < 2; table++) {
+            if (locationId != null) {
+                statement.setInt(parameter++, locationId);
+            }
+
+            if (packageId != null) {
+                statement.setInt(parameter++, packageId);
+            }
+
+            if (from != null) {
+                statement.setTimestamp(parameter++, Timestamp.valueOf(from));
+                statement.setTimestamp(parameter++, Timestamp.valueOf(to));
+            }
+
+            if (key != null) {
+                statement.setTimestamp(parameter++, key.timestamp());
+                statement.setTimestamp(parameter++, key.timestamp());
+                statement.setLong(parameter++, key.id());
+            }
+
+            statement.setInt(parameter++, size + 1);
+        }
+
+        statement.setInt(parameter, size + 1);
+
+        List<Event> events = new ArrayList<>(size + 1);
+
+        try (EventCursor cursor = new EventCursor(statement.executeQuery())) {
+            ForEach(cursor, events::add);
+        }
+
+        if (events.size() <= size) {
+            return new EventPage(events, null);
+        }
+
+        events.remove(size);
+
+        return new EventPage(events, EventPage.Token(events.get(size - 1)));
+    }
+
+    /**
+     * Moves the events of packages that have had no event since the cutoff to EventsArchive, batchSize events
+     * per statement and transaction, pausing pauseMillis between batches so other writers get at the locks.
+     * Every event query still reads archived events, and the package counters keep counting them. Adds the
+     * coming monthly partitions first when Events is partitioned. Expects the connection in auto-commit mode.
+     * Returns the events moved.
+     */
+    public long ArchiveEvents(PooledConnection connection, LocalDateTime cutoff, int batchSize, long pauseMillis) throws SQLException {
+        return metrics.Measure("archive_events", connection, moved -> moved, () -> {
+            if (partitionMonthsAhead >= 0) {
+                try (var statement = connection.Connection().createStatement()) {
+                    for (String sqlQuery : dialect.PartitionEventsByMonth(partitionMonthsAhead)) {
+                        statement.execute(sqlQuery);
+                    }
+                }
+            }
+
+            long moved = 0;
+            int batch;
+
+            do {
+                PreparedStatement statement = connection.Prepare(dialect.ArchiveEvents());
+                statement.setTimestamp(1, Timestamp.valueOf(cutoff));
+                statement.setInt(2, batchSize);
+
+                batch = statement.executeUpdate();
+                moved += batch;
+
+                if (batch == batchSize && pauseMillis > 0) {
+                    try {
+                        Thread.sleep(pauseMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+
+                        break;
+                    }
+                }
+            } while (batch == batchSize);
+
+            return moved;
+        });
+    }
+
+    public long CountPackagesForCustomer(PooledConnection connection, int customerId) throws SQLException {
+        return metrics.Measure("count_packages_for_customer", connection, count -> 1, () ->
+                Count(connection, dialect.CountPackagesForCustomer(), customerId));
+    }
+
+    public long CountEventsForPackage(PooledConnection connection, int packageId) throws SQLException {
+        return metrics.Measure("count_events_for_package", connection, count -> 1, () ->
+                Count(connection, dialect.CountEventsForPackage(), packageId));
+    }
+
+    private static long Count(PooledConnection connection, String sqlQuery, int id) throws SQLException {
+        PreparedStatement statement = connection.Prepare(sqlQuery);
+        statement.setInt(1, id);
+
+        try (ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        }
+    }
+
+    // Forward-only, read-only and with the configured fetch size, so long results stream instead of being
+    // materialized in a scrollable server-side cursor.
+    private PreparedStatement PrepareRead(PooledConnection connection, String sqlQuery) throws SQLException {
+        PreparedStatement statement = connection.Prepare(sqlQuery);
+        statement.setFetchSize(fetchSize);
+
+        return statement;
+    }
+
+    private static long ForEach(EventCursor cursor, Consumer<Event> callback) throws SQLException {
+        long count = 0;
+
+        try {
+            while (cursor.hasNext()) {
+                callback.accept(cursor.next());
+                count++;
+            }
+        } catch (IllegalStateException e) {
+            if (e.getCause() instanceof SQLException cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+
+        return count;
+    }
+
+    private static long Found(int id) {
+        return id == -1 ? 0 : 1;
+    }
+
+    private static long Added(boolean added) {
+        return added ? 1 : 0;
+    }
+
+    private static boolean Succeeds(Statement statement, String sqlQuery) {
+        try {
+            statement.execute(sqlQuery);
+
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static int ResolveId(PooledConnection connection, IdCache cache, String sqlQuery, String key) throws SQLException {
+        Integer cached = cache.Get(key);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        int id = -1;
+
+        PreparedStatement statement = connection.Prepare(sqlQuery);
+        statement.setString(1, key);
+
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next())
+                id = resultSet.getInt("id");
+        }
+
+        if (id != -1) {
+            cache.Put(key, id);
+        }
+
+        return id;
+    }
+
+    // Runs an insert-if-missing statement and caches the new row id. Returns false when the row already existed.
+    private static boolean InsertIfMissing(PreparedStatement statement, IdCache cache, String key) throws SQLException {
+        if (statement.executeUpdate() == 0) {
+            return false;
+        }
+
+        try (ResultSet keys = statement.getGeneratedKeys()) {
+            if (keys.next()) {
+                cache.Put(key, keys.getInt(1));
+            }
+        }
+
+        return true;
+    }
+}
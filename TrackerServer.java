@@ -0,0 +1,468 @@
+package at.koodi;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * HTTP/JSON front end for the operations of {@link Tracker}, on the JDK's built-in HttpServer:
+ *
+ * <pre>
+ * POST /database                                 create the tables
+ * POST /locations   {"description": ...}         add a location
+ * POST /customers   {"name": ...}                add a customer
+ * POST /packages    {"trackingcode": ..., "customer": ...}
+ * POST /events      {"location": ..., "trackingcode": ..., "description": ...}
+ * GET  /packages/{trackingcode}/events[?limit=n&amp;after=token]
+ * GET  /customers/{name}/packages
+ * GET  /locations/{description}/events?date=YYYY-MM-DD
+ * GET  /stats                                    request counts and latency percentiles per route
+ * GET  /metrics                                  operation, pool and cache metrics in Prometheus text format
+ * </pre>
+ *
+ * Each request runs on its own virtual thread when the runtime has them (Java 21+), otherwise on a fixed pool
+ * of http.threads platform threads, and borrows a connection from the pool only while it talks to the database.
+ */
+public class TrackerServer implements AutoCloseable {
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final ConnectionPool pool;
+    private final Tracker tracker;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final int defaultLimit;
+    private final EventIngester ingester;
+    private final MetricsExporter metrics;
+    private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+
+    private interface Route {
+        Response Handle(HttpExchange exchange, String[] path) throws IOException, SQLException;
+    }
+
+    private record Response(int status, String contentType, String body) {
+        Response(int status, String json) {
+            this(status, "application/json; charset=utf-8", json);
+        }
+    }
+
+    public TrackerServer(ConnectionPool pool, Tracker tracker, Settings settings) throws IOException {
+        this.pool = pool;
+        this.tracker = tracker;
+        this.defaultLimit = Math.max(1, settings.GetInt("page.size", 20));
+        this.ingester = settings.GetBoolean("ingest.writeBehind", false) ? new EventIngester(pool, tracker, settings) : null;
+        this.metrics = new MetricsExporter(pool, tracker, settings);
+        this.executor = VirtualThreads.NewExecutor(settings.GetInt("http.threads", 64));
+        this.server = HttpServer.create(
+                new InetSocketAddress(settings.GetInt("http.port", 8080)),
+                settings.GetInt("http.backlog", 1024));
+
+        server.setExecutor(executor);
+        server.createContext("/", this::Dispatch);
+    }
+
+    public int Port() {
+        return server.getAddress().getPort();
+    }
+
+    public void Start() {
+        server.start();
+    }
+
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+
+        if (ingester != null) {
+            ingester.close();
+        }
+    }
+
+    private void Dispatch(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        String method = exchange.getRequestMethod();
+        String[] path = Segments(exchange.getRequestURI().getRawPath());
+        String name = RouteName(method, path);
+        Route route = Find(name);
+        Response response;
+
+        if (route == null) {
+            name = "unmatched";
+        }
+
+        try {
+            response = route == null
+                    ? Error(404, "No such route: " + method + " " + exchange.getRequestURI().getPath())
+                    : route.Handle(exchange, path);
+        } catch (SQLException e) {
+            response = Error(500, "Database error: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            response = Error(400, e.getMessage());
+        } catch (RuntimeException e) {
+            response = Error(500, e.toString());
+        }
+
+        byte[] body = response.body().getBytes(StandardCharsets.UTF_8);
+
+        try (exchange) {
+            exchange.getResponseHeaders().set("Content-Type", response.contentType());
+            exchange.sendResponseHeaders(response.status(), body.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            latencies.computeIfAbsent(name, key -> new LatencyHistogram()).Record(System.nanoTime() - start);
+        }
+    }
+
+    private Route Find(String routeName) {
+        switch (routeName) {
+            case "POST /database":
+                return this::CreateDatabase;
+            case "POST /locations":
+                return this::AddLocation;
+            case "POST /customers":
+                return this::AddCustomer;
+            case "POST /packages":
+                return this::AddPackage;
+            case "POST /events":
+                return this::AddEvent;
+            case "GET /packages/{}/events":
+                return this::EventsForPackage;
+            case "GET /customers/{}/packages":
+                return this::PackagesForCustomer;
+            case "GET /locations/{}/events":
+                return this::EventsForLocation;
+            case "GET /stats":
+                return (exchange, segments) -> new Response(200, Stats());
+            case "GET /metrics":
+                return (exchange, segments) -> new Response(200, MetricsExporter.CONTENT_TYPE, metrics.Render());
+            default:
+                return null;
+        }
+    }
+
+    // The route with its name parameter blanked out, e.g. "GET /packages/{}/events", used as the stats key.
+    private static String RouteName(String method, String[] path) {
+        StringBuilder name = new StringBuilder(method).append(' ');
+
+        for (int i = 0; i < path.length; i++) {
+            name.append('/').append(i == 1 && path.length == 3 ? "{}" : path[i]);
+        }
+
+        return path.length == 0 ? name.append('/').toString() : name.toString();
+    }
+
+    private Response CreateDatabase(HttpExchange exchange, String[] path) throws SQLException {
+        try (PooledConnection connection = pool.Borrow()) {
+            tracker.CreateDatabase(connection);
+        }
+
+        return new Response(200, "{\"created\":true}");
+    }
+
+    private Response AddLocation(HttpExchange exchange, String[] path) throws IOException, SQLException {
+        String description = Required(ReadBody(exchange), "description");
+
+        try (PooledConnection connection = pool.Borrow()) {
+            return tracker.AddLocation(connection, description)
+                    ? new Response(201, "{\"location\":" + Quote(description) + "}")
+                    : Error(409, "Location " + description + " already exists");
+        }
+    }
+
+    private Response AddCustomer(HttpExchange exchange, String[] path) throws IOException, SQLException {
+        String name = Required(ReadBody(exchange), "name");
+
+        try (PooledConnection connection = pool.Borrow()) {
+            return tracker.AddCustomer(connection, name)
+                    ? new Response(201, "{\"customer\":" + Quote(name) + "}")
+                    : Error(409, "Customer " + name + " already exists");
+        }
+    }
+
+    private Response AddPackage(HttpExchange exchange, String[] path) throws IOException, SQLException {
+        Map<String, String> body = ReadBody(exchange);
+        String trackingCode = Required(body, "trackingcode");
+        String customer = Required(body, "customer");
+
+        try (PooledConnection connection = pool.Borrow()) {
+            int customerId = tracker.CustomerId(connection, customer);
+
+            if (customerId == -1) {
+                return Error(404, "Customer " + customer + " does not exist");
+            }
+
+            return tracker.AddPackage(connection, trackingCode, customerId)
+                    ? new Response(201, "{\"trackingcode\":" + Quote(trackingCode) + "}")
+                    : Error(409, "Package with code " + trackingCode + " already exists");
+        }
+    }
+
+    private Response AddEvent(HttpExchange exchange, String[] path) throws IOException, SQLException {
+        Map<String, String> body = ReadBody(exchange);
+        String location = Required(body, "location");
+        String trackingCode = Required(body, "trackingcode");
+        String description = Required(body, "description");
+
+        switch (ingester == null ? AddEventNow(location, trackingCode, description) : ingester.Add(location, trackingCode, description)) {
+            case UNKNOWN_LOCATION:
+                return Error(404, "Location " + location + " does not exist");
+            case UNKNOWN_PACKAGE:
+                return Error(404, "Package with code " + trackingCode + " does not exist");
+            default:
+                return new Response(201, "{\"added\":true}");
+        }
+    }
+
+    private EventResult AddEventNow(String location, String trackingCode, String description) throws SQLException {
+        try (PooledConnection connection = pool.Borrow()) {
+            return tracker.AddEvent(connection, location, trackingCode, description);
+        }
+    }
+
+    // Newest first, a page at a time; "next" is the token for the following page.
+    private Response EventsForPackage(HttpExchange exchange, String[] path) throws SQLException {
+        Map<String, String> query = Query(exchange);
+        int limit = query.containsKey("limit") ? ParseLimit(query.get("limit")) : defaultLimit;
+
+        try (PooledConnection connection = pool.Borrow()) {
+            int packageId = tracker.PackageId(connection, path[1]);
+
+            if (packageId == -1) {
+                return Error(404, "Package with code " + path[1] + " does not exist");
+            }
+
+            EventPage page = tracker.EventPageForPackage(connection, packageId, query.get("after"), limit);
+
+            return new Response(200, "{\"events\":" + Events(page.events())
+                    + ",\"next\":" + (page.HasMore() ? Quote(page.nextToken()) : "null") + "}");
+        }
+    }
+
+    private Response PackagesForCustomer(HttpExchange exchange, String[] path) throws SQLException {
+        try (PooledConnection connection = pool.Borrow()) {
+            int customerId = tracker.CustomerId(connection, path[1]);
+
+            if (customerId == -1) {
+                return Error(404, "Customer with name " + path[1] + " does not exist");
+            }
+
+            StringBuilder json = new StringBuilder("{\"packages\":[");
+
+            for (PackageEventCount found : tracker.PackagesForCustomerWithEventCounts(connection, customerId)) {
+                if (json.charAt(json.length() - 1) != '[') {
+                    json.append(',');
+                }
+
+                json.append("{\"trackingcode\":").append(Quote(found.trackingCode()))
+                        .append(",\"events\":").append(found.events())
+                        .append(",\"lastEventAt\":").append(found.lastEventAt() == null
+                                ? "null"
+                                : Quote(TIMESTAMP_FORMAT.format(found.lastEventAt().toLocalDateTime())))
+                        .append(",\"lastLocation\":").append(Quote(found.lastLocation()))
+                        .append('}');
+            }
+
+            return new Response(200, json.append("]}").toString());
+        }
+    }
+
+    private Response EventsForLocation(HttpExchange exchange, String[] path) throws SQLException {
+        String date = Query(exchange).get("date");
+
+        if (date == null) {
+            throw new IllegalArgumentException("Missing query parameter date");
+        }
+
+        LocalDate day;
+
+        try {
+            day = LocalDate.parse(date);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Date " + date + " is not in YYYY-MM-DD format");
+        }
+
+        try (PooledConnection connection = pool.Borrow()) {
+            int locationId = tracker.LocationId(connection, path[1]);
+
+            if (locationId == -1) {
+                return Error(404, "Location with name " + path[1] + " does not exist");
+            }
+
+            return new Response(200, "{\"events\":" + Events(tracker.EventsForLocationOnDay(connection, locationId, day)) + "}");
+        }
+    }
+
+    public String Stats() {
+        StringBuilder json = new StringBuilder("{");
+
+        for (Map.Entry<String, LatencyHistogram> route : new TreeMap<>(latencies).entrySet()) {
+            LatencyHistogram histogram = route.getValue();
+
+            if (json.length() > 1) {
+                json.append(',');
+            }
+
+            json.append(Quote(route.getKey())).append(":{")
+                    .append("\"count\":").append(histogram.Count())
+                    .append(",\"meanMicros\":").append((long) histogram.MeanNanos() / 1000)
+                    .append(",\"p50Micros\":").append(histogram.PercentileNanos(50) / 1000)
+                    .append(",\"p99Micros\":").append(histogram.PercentileNanos(99) / 1000)
+                    .append(",\"maxMicros\":").append(histogram.MaxNanos() / 1000)
+                    .append('}');
+        }
+
+        return json.append('}').toString();
+    }
+
+    private static String Events(List<Event> events) {
+        StringBuilder json = new StringBuilder("[");
+
+        for (Event event : events) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+
+            json.append("{\"id\":").append(event.id())
+                    .append(",\"timestamp\":").append(Quote(TIMESTAMP_FORMAT.format(event.timestamp().toLocalDateTime())))
+                    .append(",\"packageId\":").append(event.packageId())
+                    .append(",\"locationId\":").append(event.locationId())
+                    .append(",\"description\":").append(Quote(event.description()))
+                    .append('}');
+        }
+
+        return json.append(']').toString();
+    }
+
+    private static int ParseLimit(String limit) {
+        try {
+            int parsed = Integer.parseInt(limit);
+
+            if (parsed < 1 || parsed > 1000) {
+                throw new IllegalArgumentException("limit must be between 1 and 1000");
+            }
+
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("limit must be a number");
+        }
+    }
+
+    private static Map<String, String> ReadBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            Map<String, String> values = EventImporter.ParseFlatJson(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+
+            if (values == null) {
+                throw new IllegalArgumentException("Body must be a flat JSON object");
+            }
+
+            return values;
+        }
+    }
+
+    private static String Required(Map<String, String> body, String key) {
+        String value = body.get(key);
+
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException("Missing field " + key);
+        }
+
+        return value.trim();
+    }
+
+    private static Map<String, String> Query(HttpExchange exchange) {
+        Map<String, String> values = new TreeMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int equals = pair.indexOf('=');
+
+                if (equals > 0) {
+                    values.put(Decode(pair.substring(0, equals)), Decode(pair.substring(equals + 1)));
+                }
+            }
+        }
+
+        return values;
+    }
+
+    private static String[] Segments(String rawPath) {
+        String trimmed = rawPath.replaceAll("^/+|/+$", "");
+
+        if (trimmed.isEmpty()) {
+            return new String[0];
+        }
+
+        String[] segments = trimmed.split("/");
+
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = Decode(segments[i]);
+        }
+
+        return segments;
+    }
+
+    private static String Decode(String text) {
+        return URLDecoder.decode(text.replace("+", "%2B"), StandardCharsets.UTF_8);
+    }
+
+    private static Response Error(int status, String message) {
+        return new Response(status, "{\"error\":" + Quote(message) + "}");
+    }
+
+    static String Quote(String text) {
+        if (text == null) {
+            return "null";
+        }
+
+        StringBuilder json = new StringBuilder(text.length() + 2).append('"');
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+
+        return json.append('"').toString();
+    }
+}
@@ -0,0 +1,42 @@
+package at.koodi;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors.newVirtualThreadPerTaskExecutor only exists from Java 21 on, and this tree still builds on 17, so
+ * it is looked up by reflection. On older runtimes the callers get a fixed pool of platform threads instead.
+ */
+public final class VirtualThreads {
+    private static final boolean AVAILABLE = Lookup() != null;
+
+    private VirtualThreads() {
+    }
+
+    public static boolean Available() {
+        return AVAILABLE;
+    }
+
+    /** One virtual thread per task when available, otherwise a fixed pool of fallbackThreads threads. */
+    public static ExecutorService NewExecutor(int fallbackThreads) {
+        try {
+            var factory = Lookup();
+
+            if (factory != null) {
+                return (ExecutorService) factory.invoke(null);
+            }
+        } catch (ReflectiveOperationException e) {
+            // Fall back to platform threads below.
+        }
+
+        return Executors.newFixedThreadPool(Math.max(1, fallbackThreads));
+    }
+
+    private static java.lang.reflect.Method Lookup() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package at.koodi.bench;
+
+import at.koodi.ConnectionPool;
+import at.koodi.Dialect;
+import at.koodi.Event;
+import at.koodi.EventPage;
+import at.koodi.EventResult;
+import at.koodi.PackageEventCount;
+import at.koodi.PooledConnection;
+import at.koodi.Settings;
+import at.koodi.Tracker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JMH benchmarks for each data-access operation of {@link Tracker}.
+ *
+ * Every trial creates the schema and loads {@code dataSetSize} locations, customers and packages with
+ * {@code eventsPerPackage} events each, spread over {@link #DAYS} days. The H2 backend uses a fresh in-memory
+ * database per trial; the SQL Server backend uses the database from tikape.properties, which should be a
+ * scratch database because the loaded rows are not removed.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class DataAccessBenchmark {
+    static final LocalDate FIRST_DAY = LocalDate.of(2020, 1, 1);
+    static final int DAYS = 30;
+
+    @Param({"h2"})
+    public String backend;
+
+    @Param({"1000", "10000"})
+    public int dataSetSize;
+
+    @Param({"10"})
+    public int eventsPerPackage;
+
+    ConnectionPool pool;
+    Tracker tracker;
+
+    final AtomicLong sequence = new AtomicLong();
+    String prefix;
+
+    int[] locationIds;
+    int[] customerIds;
+    int[] packageIds;
+    String[] locationNames;
+    String[] trackingCodes;
+
+    @State(Scope.Thread)
+    public static class Client {
+        PooledConnection connection;
+        SplittableRandom random;
+
+        @Setup(Level.Trial)
+        public void Setup(DataAccessBenchmark benchmark) throws SQLException {
+            connection = benchmark.pool.Borrow();
+            random = new SplittableRandom(Thread.currentThread().getId());
+        }
+
+        @TearDown(Level.Trial)
+        public void TearDown() {
+            connection.close();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void Setup() throws SQLException {
+        Settings settings = Settings.Load("tikape.properties");
+        Dialect dialect = Dialect.ForName(backend);
+
+        String url = backend.equals("h2")
+                ? "jdbc:h2:mem:bench" + System.nanoTime() + ";DB_CLOSE_DELAY=-1"
+                : dialect.JdbcUrl(settings);
+
+        pool = new ConnectionPool(url, settings);
+        tracker = new Tracker(dialect, settings);
+        prefix = "b" + Long.toString(System.currentTimeMillis(), 36) + "-";
+
+        try (PooledConnection connection = pool.Borrow()) {
+            tracker.CreateDatabase(connection);
+            Load(connection, dialect);
+
+            List<String> names = new ArrayList<>();
+            locationIds = TrialIds(connection.Connection(), dialect.AllLocationIds(), "L", names);
+            locationNames = names.toArray(new String[0]);
+
+            customerIds = TrialIds(connection.Connection(), dialect.AllCustomerIds(), "C", new ArrayList<>());
+
+            names.clear();
+            packageIds = TrialIds(connection.Connection(), dialect.AllPackageIds(), "TC", names);
+            trackingCodes = names.toArray(new String[0]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void TearDown() {
+        pool.close();
+    }
+
+    private void Load(PooledConnection connection, Dialect dialect) throws SQLException {
+        Connection raw = connection.Connection();
+        raw.setAutoCommit(false);
+
+        BatchInsert(connection, dialect.InsertLocation(), "L");
+        BatchInsert(connection, dialect.InsertCustomer(), "C");
+
+        int[] customers = TrialIds(raw, dialect.AllCustomerIds(), "C", new ArrayList<>());
+
+        SplittableRandom random = new SplittableRandom(42);
+
+        PreparedStatement packages = connection.Prepare(dialect.InsertPackage());
+        for (int i = 1; i <= dataSetSize; i++) {
+            packages.setString(1, prefix + "TC" + i);
+            packages.setInt(2, customers[random.nextInt(customers.length)]);
+            packages.addBatch();
+        }
+        packages.executeBatch();
+        raw.commit();
+
+        int[] locations = TrialIds(raw, dialect.AllLocationIds(), "L", new ArrayList<>());
+        int[] codes = TrialIds(raw, dialect.AllPackageIds(), "TC", new ArrayList<>());
+
+        long start = Timestamp.valueOf(FIRST_DAY.atStartOfDay()).getTime();
+        long span = TimeUnit.DAYS.toMillis(DAYS);
+
+        PreparedStatement events = connection.Prepare(dialect.InsertEventsWithTimestamps(1));
+        int pending = 0;
+
+        for (int packageId : codes) {
+            for (int e = 0; e < eventsPerPackage; e++) {
+                events.setTimestamp(1, new Timestamp(start + random.nextLong(span)));
+                events.setInt(2, packageId);
+                events.setInt(3, locations[random.nextInt(locations.length)]);
+                events.setString(4, "Package scanned.");
+                events.addBatch();
+
+                if (++pending == 1000) {
+                    events.executeBatch();
+                    raw.commit();
+                    pending = 0;
+                }
+            }
+        }
+
+        events.executeBatch();
+        raw.commit();
+        raw.setAutoCommit(true);
+    }
+
+    private void BatchInsert(PooledConnection connection, String sqlQuery, String kind) throws SQLException {
+        PreparedStatement statement = connection.Prepare(sqlQuery);
+
+        for (int i = 1; i <= dataSetSize; i++) {
+            statement.setString(1, prefix + kind + i);
+            statement.addBatch();
+        }
+
+        statement.executeBatch();
+        connection.Connection().commit();
+    }
+
+    // Reads the ids and names of the rows this trial loaded, picking them out by their name prefix.
+    private int[] TrialIds(Connection connection, String sqlQuery, String kind, List<String> names) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+
+        try (var statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sqlQuery)) {
+            while (resultSet.next()) {
+                if (resultSet.getString(2).startsWith(prefix + kind)) {
+                    ids.add(resultSet.getInt(1));
+                    names.add(resultSet.getString(2));
+                }
+            }
+        }
+
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int Pick(int[] ids, Client client) {
+        return ids[client.random.nextInt(ids.length)];
+    }
+
+    @Benchmark
+    public boolean AddLocation(Client client) throws SQLException {
+        return tracker.AddLocation(client.connection, prefix + "new-L" + sequence.incrementAndGet());
+    }
+
+    @Benchmark
+    public boolean AddCustomer(Client client) throws SQLException {
+        return tracker.AddCustomer(client.connection, prefix + "new-C" + sequence.incrementAndGet());
+    }
+
+    @Benchmark
+    public boolean AddPackage(Client client) throws SQLException {
+        return tracker.AddPackage(client.connection, prefix + "new-TC" + sequence.incrementAndGet(), Pick(customerIds, client));
+    }
+
+    @Benchmark
+    public EventResult AddEvent(Client client) throws SQLException {
+        return tracker.AddEvent(
+                client.connection,
+                locationNames[client.random.nextInt(locationNames.length)],
+                trackingCodes[client.random.nextInt(trackingCodes.length)],
+                "Package scanned.");
+    }
+
+    @Benchmark
+    public List<Event> EventsForPackage(Client client) throws SQLException {
+        return tracker.EventsForPackage(client.connection, Pick(packageIds, client));
+    }
+
+    @Benchmark
+    public EventPage LatestEventsForPackage(Client client) throws SQLException {
+        return tracker.EventPageForPackage(client.connection, Pick(packageIds, client), null, 20);
+    }
+
+    @Benchmark
+    public List<PackageEventCount> PackagesForCustomerWithEventCounts(Client client) throws SQLException {
+        return tracker.PackagesForCustomerWithEventCounts(client.connection, Pick(customerIds, client));
+    }
+
+    @Benchmark
+    public List<Event> EventsForLocationOnDay(Client client) throws SQLException {
+        return tracker.EventsForLocationOnDay(
+                client.connection,
+                Pick(locationIds, client),
+                FIRST_DAY.plusDays(client.random.nextInt(DAYS)));
+    }
+
+    @Benchmark
+    public long CountPackagesForCustomer(Client client) throws SQLException {
+        return tracker.CountPackagesForCustomer(client.connection, Pick(customerIds, client));
+    }
+
+    @Benchmark
+    public long CountEventsForPackage(Client client) throws SQLException {
+        return tracker.CountEventsForPackage(client.connection, Pick(packageIds, client));
+    }
+}
@@ -0,0 +1,32 @@
+package at.koodi;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * H2 row trigger behind TR_Events_Counters: adds every inserted event to the counters of its package.
+ * H2 calls it inside the inserting statement, so the counters commit or roll back together with the event.
+ * See {@link Dialect#UpdatePackageCounters()} for the statement it runs.
+ *
+ * It lives in the h2 source set because it implements an H2 interface; the app itself compiles without H2.
+ */
+public class EventCounterTrigger implements org.h2.api.Trigger {
+    @Override
+    public void fire(Connection connection, Object[] oldRow, Object[] newRow) throws SQLException {
+        // Columns in table order: id, timestamp, package_id, location_id, description.
+        if (newRow == null || newRow[2] == null) {
+            return;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(Dialect.UpdatePackageCounters())) {
+            statement.setObject(1, newRow[1]);
+            statement.setObject(2, newRow[3]);
+            statement.setObject(3, newRow[1]);
+            statement.setObject(4, newRow[1]);
+            statement.setObject(5, newRow[2]);
+
+            statement.executeUpdate();
+        }
+    }
+}
@@ -3,10 +3,23 @@ package at.koodi;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.*;
-import java.util.Random;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Main {
+    private static Settings settings;
+    private static Dialect dialect;
+    private static Tracker tracker;
+    private static MetricsExporter metrics;
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
     private static void PrintMenu() {
         System.out.println("Welcome to tikape-app. List of available commands:");
         System.out.println("1. Create database");
@@ -18,36 +31,28 @@ public class Main {
         System.out.println("7. Get all packages for a customer and number of events");
         System.out.println("8. Get all events for a location on a given day");
         System.out.println("9. Performance test");
+        System.out.println("10. Import events from a file");
+        System.out.println("11. Create or drop secondary indexes");
+        System.out.println("12. Performance test with and without secondary indexes");
+        System.out.println("13. Get all events in a time range");
+        System.out.println("14. Get the latest events for a package, a page at a time");
+        System.out.println("15. Show cache statistics");
+        System.out.println("16. Concurrent mixed load test");
+        System.out.println("17. Show metrics");
+        System.out.println("18. Archive events of packages idle for archive.days days");
+        System.out.println("19. Export all events to a snapshot file");
+        System.out.println("20. Query an event snapshot file");
+        System.out.println("21. Report daily location throughput, events per package and busiest hours");
         System.out.println("Type in the number of the command you want to take. Type q to exit");
     }
 
-    private static void CreateDatabase(Connection connection) {
+    private static void CreateDatabase(PooledConnection connection) {
         System.out.println("Creating databases");
         System.out.println("=========================================");
         System.out.println("Creating tables...");
 
-        String sqlQuery =
-                "IF NOT EXISTS(SELECT * FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = 'Locations')\n "
-                + "BEGIN\n "
-                + "CREATE TABLE Locations(id int identity not null primary key, description varchar(255) not null)\n"
-                + "END;"
-                + "IF NOT EXISTS(SELECT * FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = N'Customers')\n"
-                + "BEGIN\n"
-                + "CREATE TABLE Customers(id int identity not null primary key, name varchar(255) not null)\n"
-                + "END;"
-                + "IF NOT EXISTS(SELECT * FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = N'Packages')\n"
-                + "BEGIN\n"
-                + "CREATE TABLE Packages(id int identity not null primary key, trackingcode varchar(255) not null, customer_id int FOREIGN KEY REFERENCES Customers(id))\n"
-                + "END;"
-                + "IF NOT EXISTS(SELECT * FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = N'Events')\n"
-                + "BEGIN\n"
-                + "CREATE TABLE Events(id int identity not null primary key, timestamp datetime not null default getdate(), package_id int FOREIGN KEY REFERENCES Packages(id), location_id int FOREIGN KEY REFERENCES Locations(id), description varchar(255) not null)\n"
-                + "END;";
-
         try {
-            PreparedStatement statement = connection.prepareStatement(sqlQuery);
-
-            statement.execute();
+            tracker.CreateDatabase(connection);
 
             System.out.println("Finished creating the database. Returning to main menu.\n");
         } catch (Exception e) {
@@ -56,26 +61,21 @@ public class Main {
         }
     }
 
-    private static void AddNewLocation(Connection connection, String location) {
+    private static void WarmUpIdCaches(ConnectionPool pool) {
+        try (PooledConnection connection = pool.Borrow()) {
+            System.out.println("Loaded " + tracker.WarmUpIdCaches(connection) + " ids into the lookup caches.");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Above error when warming up the lookup caches.");
+        }
+    }
+
+    private static void AddNewLocation(PooledConnection connection, String location) {
         System.out.println("Adding a new location");
         System.out.println("=========================================");
 
-        String sqlQuery =
-                "IF NOT EXISTS(SELECT * FROM Locations WHERE description=?)\n"
-                + "BEGIN\n"
-                + "INSERT INTO Locations(description) VALUES(?)\n"
-                + "END;"
-                + "ELSE SELECT * FROM Locations WHERE description=?;";
-
         try {
-            PreparedStatement statement = connection.prepareStatement(sqlQuery);
-            statement.setString(1, location);
-            statement.setString(2, location);
-            statement.setString(3, location);
-
-            statement.execute();
-
-            if (statement.getResultSet() != null) {
+            if (!tracker.AddLocation(connection, location)) {
                 System.out.println(
                         "Location "
                         + location
@@ -89,26 +89,12 @@ public class Main {
         }
     }
 
-    private static void AddNewCustomer(Connection connection, String name) {
+    private static void AddNewCustomer(PooledConnection connection, String name) {
         System.out.println("Adding a new customer");
         System.out.println("=========================================");
 
-        String sqlQuery =
-                "IF NOT EXISTS(SELECT * FROM Customers WHERE name=?)\n"
-                + "BEGIN\n"
-                + "INSERT INTO Customers(name) VALUES (?)\n"
-                + "END;"
-                + "ELSE SELECT * FROM Customers WHERE name=?;";
-
         try {
-            PreparedStatement statement = connection.prepareStatement(sqlQuery);
-            statement.setString(1, name);
-            statement.setString(2, name);
-            statement.setString(3, name);
-
-            statement.execute();
-
-            if (statement.getResultSet() != null) {
+            if (!tracker.AddCustomer(connection, name)) {
                 System.out.println(
                         "Customer "
                         + name
@@ -123,35 +109,14 @@ public class Main {
         }
     }
 
-    private static void AddNewPackage(Connection connection, String trackingCode, String customer) {
+    private static void AddNewPackage(PooledConnection connection, String trackingCode, String customer) {
         System.out.println("Adding a new package to the system");
         System.out.println("=========================================");
 
-        String sqlQuery = "SELECT * FROM Customers WHERE name=?;";
-
-        int customerID = -1;
+        int customerID;
 
         try {
-            PreparedStatement statement = connection.prepareStatement(
-                    sqlQuery,
-                    ResultSet.TYPE_SCROLL_SENSITIVE,
-                    ResultSet.CONCUR_READ_ONLY);
-            statement.setString(1, customer);
-
-            statement.execute();
-
-            if (!statement.getResultSet().isBeforeFirst()) {
-                System.out.println(
-                        "Customer "
-                        + customer
-                        + " does not exist. Unable to add package. Returning to main menu.\n");
-
-                return;
-            } else {
-                statement.getResultSet().beforeFirst();
-                while (statement.getResultSet().next())
-                    customerID = statement.getResultSet().getInt("id");
-            }
+            customerID = tracker.CustomerId(connection, customer);
         } catch (Exception e) {
             e.printStackTrace();
             System.out.println("Above error when finding customer. Returning to main menu. \n");
@@ -160,26 +125,16 @@ public class Main {
         }
 
         if (customerID == -1) {
+            System.out.println(
+                    "Customer "
+                    + customer
+                    + " does not exist. Unable to add package. Returning to main menu.\n");
+
             return;
         }
 
-        sqlQuery =
-                "IF NOT EXISTS(SELECT * FROM Packages WHERE trackingcode=?)\n"
-                + "BEGIN\n"
-                + "INSERT INTO Packages(trackingcode, customer_id) VALUES (?, ?)\n"
-                + "END;"
-                + "ELSE SELECT * FROM Packages WHERE trackingcode=?;";
-
         try {
-            PreparedStatement statement = connection.prepareStatement(sqlQuery);
-            statement.setString(1, trackingCode);
-            statement.setString(2, trackingCode);
-            statement.setInt(3, customerID);
-            statement.setString(4, trackingCode);
-
-            statement.execute();
-
-            if (statement.getResultSet() != null) {
+            if (!tracker.AddPackage(connection, trackingCode, customerID)) {
                 System.out.println(
                         "Package with code "
                         + trackingCode
@@ -193,70 +148,50 @@ public class Main {
         }
     }
 
-    private static void AddNewEvent(Connection connection, String location, String trackingCode, String description) {
+    private static void AddNewEvent(PooledConnection connection, String location, String trackingCode, String description) {
         System.out.println("Adding a new event");
         System.out.println("=========================================");
 
-        String sqlQuery = "SELECT * FROM Locations WHERE description=?;";
-
-        int locationId = -1;
-        int packageId = -1;
-
         try {
-            PreparedStatement statement = connection.prepareStatement(
-                    sqlQuery,
-                    ResultSet.TYPE_SCROLL_SENSITIVE,
-                    ResultSet.CONCUR_READ_ONLY);
-            statement.setString(1, location);
-
-            statement.execute();
-
-            if (!statement.getResultSet().isBeforeFirst()) {
-                System.out.println(
-                        "Location "
-                        + location
-                        + " does not exist. Unable to add event. Returning to main menu.\n");
-
-                return;
-            } else {
-                statement.getResultSet().beforeFirst();
-                while (statement.getResultSet().next())
-                    locationId = statement.getResultSet().getInt("id");
+            switch (tracker.AddEvent(connection, location, trackingCode, description)) {
+                case ADDED:
+                    System.out.println("Finished adding an event for package. Returning to main menu.\n");
+                    break;
+                case UNKNOWN_LOCATION:
+                    System.out.println(
+                            "Location "
+                            + location
+                            + " does not exist. Unable to add event. Returning to main menu.\n");
+                    break;
+                case UNKNOWN_PACKAGE:
+                    System.out.println(
+                            "Package with code "
+                            + trackingCode
+                            + " does not exist. Unable to add event. Returning to main menu.\n");
+                    break;
             }
         } catch (Exception e) {
             e.printStackTrace();
-            System.out.println("Above error when finding location. Returning to main menu.\n");
-
-            return;
-        }
-
-        if (locationId == -1) {
-            return;
+            System.out.println("Above error when adding an event. Returning to main menu.\n");
         }
+    }
 
-        sqlQuery = "SELECT * FROM Packages WHERE trackingCode=?;";
+    private static String FormatTimestamp(Timestamp timestamp) {
+        return TIMESTAMP_FORMAT.format(timestamp.toLocalDateTime());
+    }
 
-        try {
-            PreparedStatement statement = connection.prepareStatement(
-                    sqlQuery,
-                    ResultSet.TYPE_SCROLL_SENSITIVE,
-                    ResultSet.CONCUR_READ_ONLY);
-            statement.setString(1, trackingCode);
+    private static void PrintEvent(Event event) {
+        System.out.println(FormatTimestamp(event.timestamp()) + " " + event.description());
+    }
 
-            statement.execute();
+    private static void GetAllEventsForPackage(PooledConnection connection, String trackingCode) {
+        System.out.println("Getting all events for a package: " + trackingCode);
+        System.out.println("=========================================");
 
-            if (!statement.getResultSet().isBeforeFirst()) {
-                System.out.println(
-                        "Package with code "
-                        + trackingCode
-                        + " does not exist. Unable to add event. Returning to main menu.\n");
+        int packageId;
 
-                return;
-            } else {
-                statement.getResultSet().beforeFirst();
-                while (statement.getResultSet().next())
-                    packageId = statement.getResultSet().getInt("id");
-            }
+        try {
+            packageId = tracker.PackageId(connection, trackingCode);
         } catch (Exception e) {
             e.printStackTrace();
             System.out.println("Above error when finding package. Returning to main menu.\n");
@@ -265,55 +200,40 @@ public class Main {
         }
 
         if (packageId == -1) {
+            System.out.println(
+                    "Package with code "
+                    + trackingCode
+                    + " does not exist. Unable to retrieve events. Returning to main menu.\n");
+
             return;
         }
 
-        sqlQuery = "INSERT INTO Events(package_id, location_id, description) VALUES (?, ?, ?);";
-
         try {
-            PreparedStatement statement = connection.prepareStatement(sqlQuery);
-            statement.setInt(1, packageId);
-            statement.setInt(2, locationId);
-            statement.setString(3, description);
-
-            statement.execute();
+            long events = tracker.ForEachEventForPackage(connection, packageId, Main::PrintEvent);
 
-            System.out.println("Finished adding an event for package. Returning to main menu.\n");
+            if (events == 0) {
+                System.out.println(
+                        "Package with code "
+                        + trackingCode
+                        + " has no events. Returning to main menu.\n");
+            } else {
+                System.out.println("No more events.\n");
+            }
         } catch (Exception e) {
             e.printStackTrace();
-            System.out.println("Above error when adding an event. Returning to main menu.\n");
+            System.out.println("Above error when fetching events. Returning to main menu.\n");
         }
     }
 
-    private static void GetAllEventsForPackage(Connection connection, String trackingCode) {
-        System.out.println("Getting all events for a package: " + trackingCode);
+    // Shows the newest events first, one page at a time, for as long as the user asks for more.
+    private static void GetLatestEventsForPackage(PooledConnection connection, BufferedReader br, String trackingCode) {
+        System.out.println("Getting the latest events for a package: " + trackingCode);
         System.out.println("=========================================");
 
-        String sqlQuery = "SELECT * FROM Packages WHERE trackingcode=?;";
-
-        int packageId = -1;
+        int packageId;
 
         try {
-            PreparedStatement statement = connection.prepareStatement(
-                    sqlQuery,
-                    ResultSet.TYPE_SCROLL_SENSITIVE,
-                    ResultSet.CONCUR_READ_ONLY);
-            statement.setString(1, trackingCode);
-
-            statement.execute();
-
-            if (!statement.getResultSet().isBeforeFirst()) {
-                System.out.println(
-                        "Package with code "
-                        + trackingCode
-                        + " does not exist. Unable to retrieve events. Returning to main menu.\n");
-
-                return;
-            } else {
-                statement.getResultSet().beforeFirst();
-                while (statement.getResultSet().next())
-                    packageId = statement.getResultSet().getInt("id");
-            }
+            packageId = tracker.PackageId(connection, trackingCode);
         } catch (Exception e) {
             e.printStackTrace();
             System.out.println("Above error when finding package. Returning to main menu.\n");
@@ -322,36 +242,48 @@ public class Main {
         }
 
         if (packageId == -1) {
-            System.out.println("Error in package id. Returning to main menu");
+            System.out.println(
+                    "Package with code "
+                    + trackingCode
+                    + " does not exist. Unable to retrieve events. Returning to main menu.\n");
 
             return;
         }
 
-        sqlQuery = "SELECT * FROM Events WHERE package_id=?";
+        int pageSize = Math.max(1, settings.GetInt("page.size", 20));
 
         try {
-            PreparedStatement statement = connection.prepareStatement(
-                    sqlQuery,
-                    ResultSet.TYPE_SCROLL_SENSITIVE,
-                    ResultSet.CONCUR_READ_ONLY);
-            statement.setInt(1, packageId);
-
-            statement.execute();
+            EventPage page = tracker.EventPageForPackage(connection, packageId, null, pageSize);
 
-            if (!statement.getResultSet().isBeforeFirst()) {
+            if (page.events().isEmpty()) {
                 System.out.println(
                         "Package with code "
                         + trackingCode
                         + " has no events. Returning to main menu.\n");
-            } else {
-                statement.getResultSet().beforeFirst();
-                while (statement.getResultSet().next())
-                    System.out.println(
-                            statement.getResultSet().getString("timestamp")
-                            + " "
-                            + statement.getResultSet().getString("description"));
 
-                System.out.println("No more events.\n");
+                return;
+            }
+
+            while (true) {
+                page.events().forEach(Main::PrintEvent);
+
+                if (!page.HasMore()) {
+                    System.out.println("No more events.\n");
+
+                    return;
+                }
+
+                System.out.println("Type y to show older events:");
+
+                String answer = br.readLine();
+
+                if (answer == null || !answer.trim().equals("y")) {
+                    System.out.println("Returning to main menu.\n");
+
+                    return;
+                }
+
+                page = tracker.EventPageForPackage(connection, packageId, page.nextToken(), pageSize);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -359,35 +291,14 @@ public class Main {
         }
     }
 
-    private static void GetAllPackagesForCustomerWithNumbers(Connection connection, String customerName) {
+    private static void GetAllPackagesForCustomerWithNumbers(PooledConnection connection, String customerName) {
         System.out.println("Getting all packages for a customer showing numbers of events");
         System.out.println("=========================================");
 
-        String sqlQuery = "SELECT * FROM Customers WHERE name=?;";
-
-        int customerId = -1;
+        int customerId;
 
         try {
-            PreparedStatement statement = connection.prepareStatement(
-                    sqlQuery,
-                    ResultSet.TYPE_SCROLL_SENSITIVE,
-                    ResultSet.CONCUR_READ_ONLY);
-            statement.setString(1, customerName);
-
-            statement.execute();
-
-            if (!statement.getResultSet().isBeforeFirst()) {
-                System.out.println(
-                        "Customer with name "
-                        + customerName
-                        + " does not exist. Returning to main menu.\n");
-
-                return;
-            } else {
-                statement.getResultSet().beforeFirst();
-                while (statement.getResultSet().next())
-                    customerId = statement.getResultSet().getInt("id");
-            }
+            customerId = tracker.CustomerId(connection, customerName);
         } catch (Exception e) {
             e.printStackTrace();
             System.out.println("Above error when finding customer. Returning to main menu. \n");
@@ -396,35 +307,32 @@ public class Main {
         }
 
         if (customerId == -1) {
+            System.out.println(
+                    "Customer with name "
+                    + customerName
+                    + " does not exist. Returning to main menu.\n");
+
             return;
         }
 
-        sqlQuery =
-                "SELECT p.trackingcode, count(E.location_id) as events "
-                + "FROM Packages p JOIN Events E ON p.id = E.package_id "
-                + "WHERE p.customer_id = ? GROUP BY p.trackingcode;";
-
         try {
-            PreparedStatement statement = connection.prepareStatement(
-                    sqlQuery,
-                    ResultSet.TYPE_SCROLL_SENSITIVE,
-                    ResultSet.CONCUR_READ_ONLY);
-            statement.setInt(1, customerId);
-
-            statement.execute();
+            List<PackageEventCount> packages = tracker.PackagesForCustomerWithEventCounts(connection, customerId);
 
-            if (!statement.getResultSet().isBeforeFirst()) {
+            if (packages.isEmpty()) {
                 System.out.println(
                         "Customer "
                         + customerName
                         + " has no packages with events. Returning to main menu.\n");
             } else {
-                statement.getResultSet().beforeFirst();
-                while (statement.getResultSet().next())
+                for (PackageEventCount found : packages)
                     System.out.println(
-                            statement.getResultSet().getString("trackingcode")
+                            found.trackingCode()
                             + " "
-                            + statement.getResultSet().getString("events"));
+                            + found.events()
+                            + ", last seen "
+                            + FormatTimestamp(found.lastEventAt())
+                            + " at "
+                            + found.lastLocation());
 
                 System.out.println("No more packages with events.\n");
             }
@@ -434,66 +342,40 @@ public class Main {
         }
     }
 
-    private static void GetAllEventsForLocationOnGivenDay(Connection connection, String location, String date) {
+    private static void GetAllEventsForLocationOnGivenDay(PooledConnection connection, String location, LocalDate date) {
         System.out.println("Getting all events for a location for a given day");
         System.out.println("=========================================");
 
-        String sqlQuery = "SELECT * FROM Locations WHERE description=?;";
-
-        int locationId = -1;
+        int locationId;
 
         try {
-            PreparedStatement statement = connection.prepareStatement(
-                    sqlQuery,
-                    ResultSet.TYPE_SCROLL_SENSITIVE,
-                    ResultSet.CONCUR_READ_ONLY);
-            statement.setString(1, location);
-
-            statement.execute();
-
-            if (!statement.getResultSet().isBeforeFirst()) {
-                System.out.println(
-                        "Location with name "
-                        + location
-                        + " does not exist. Returning to main menu.\n");
-            } else {
-                statement.getResultSet().beforeFirst();
-                while (statement.getResultSet().next())
-                    locationId = statement.getResultSet().getInt("id");
-            }
+            locationId = tracker.LocationId(connection, location);
         } catch (Exception e) {
             e.printStackTrace();
             System.out.println("Above error when finding location. Returning to main menu.\n");
+
+            return;
         }
 
         if (locationId == -1) {
+            System.out.println(
+                    "Location with name "
+                    + location
+                    + " does not exist. Returning to main menu.\n");
+
             return;
         }
 
-        sqlQuery = "SELECT * FROM Events WHERE location_id = ? AND datediff(day, timestamp, ?) = 0;";
-
         try {
-            PreparedStatement statement = connection.prepareStatement(
-                    sqlQuery,
-                    ResultSet.TYPE_SCROLL_SENSITIVE,
-                    ResultSet.CONCUR_READ_ONLY);
-            statement.setInt(1, locationId);
-            statement.setString(2, date);
-
-            statement.execute();
+            long events = tracker.ForEachEventInRange(
+                    connection, date.atStartOfDay(), date.plusDays(1).atStartOfDay(), locationId, null, Main::PrintEvent);
 
-            if (!statement.getResultSet().isBeforeFirst()) {
+            if (events == 0) {
                 System.out.println(
                         "Date "
                         + date
                         + " has no packages at the location. Returning to main menu.\n");
             } else {
-                statement.getResultSet().beforeFirst();
-                while (statement.getResultSet().next())
-                    System.out.println(
-                            statement.getResultSet().getString("timestamp")
-                            + " "
-                            + statement.getResultSet().getString("description"));
                 System.out.println("No more events at the location for the day.\n");
             }
         } catch (Exception e) {
@@ -502,145 +384,326 @@ public class Main {
         }
     }
 
-    private static void DoPerformanceTest(Connection connection) {
-        System.out.println("Starting performance test");
-        System.out.println("=========================================");
+    // Accepts YYYY-MM-DD (midnight) or YYYY-MM-DD HH:MM[:SS].
+    private static LocalDateTime ParseDateTime(String text) {
+        String trimmed = text.trim();
 
-        String sqlQuery1 = "INSERT INTO Locations (description) VALUES (?)";
-        String sqlQuery2 = "INSERT INTO Customers (name) VALUES (?)";
-        String sqlQuery3 = "INSERT INTO Packages (trackingcode, customer_id) VALUES ( ?, ?)";
-        String sqlQuery4 = "INSERT INTO Events (package_id, location_id, description) VALUES( ?, ?, ?)";
-        String sqlQuery5 = "SELECT count(id) FROM Packages WHERE customer_id = ?";
-        String sqlQuery6 = "SELECT count(description) FROM Events WHERE package_id = ?";
+        if (trimmed.length() == 10) {
+            return LocalDate.parse(trimmed).atStartOfDay();
+        }
 
-        Random rand = new Random();
+        return LocalDateTime.parse(trimmed.replace(' ', 'T'));
+    }
 
-        try {
-            connection.setAutoCommit(false);
+    private static void GetEventsInTimeRange(PooledConnection connection, LocalDateTime from, LocalDateTime to, String location, String trackingCode) {
+        System.out.println("Getting all events from " + from + " up to " + to);
+        System.out.println("=========================================");
 
-            var startTime = System.currentTimeMillis();
+        Integer locationId = null;
+        Integer packageId = null;
 
-            Statement sqlStatement = connection.createStatement();
+        try {
+            if (!location.isBlank()) {
+                locationId = tracker.LocationId(connection, location);
 
-            sqlStatement.execute("SET NOCOUNT ON");
-            sqlStatement.execute("BEGIN TRANSACTION");
+                if (locationId == -1) {
+                    System.out.println(
+                            "Location with name "
+                            + location
+                            + " does not exist. Returning to main menu.\n");
 
-            PreparedStatement sqlCommand = connection.prepareStatement(sqlQuery1);
-            for (int i = 1; i <= 1000; i++) {
-                sqlCommand.setString(1, "P" + i);
-                sqlCommand.addBatch();
+                    return;
+                }
             }
-            sqlCommand.executeBatch();
-            sqlCommand.close();
 
-            sqlStatement.execute("COMMIT");
+            if (!trackingCode.isBlank()) {
+                packageId = tracker.PackageId(connection, trackingCode);
 
-            var endTime = System.currentTimeMillis();
+                if (packageId == -1) {
+                    System.out.println(
+                            "Package with code "
+                            + trackingCode
+                            + " does not exist. Returning to main menu.\n");
 
-            System.out.println(
-                    "Finished stage 1 in "
-                    + (endTime - startTime));
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Above error when finding location or package. Returning to main menu.\n");
 
-            startTime = System.currentTimeMillis();
+            return;
+        }
 
-            sqlStatement.execute("BEGIN TRANSACTION");
+        try {
+            long events = tracker.ForEachEventInRange(connection, from, to, locationId, packageId, Main::PrintEvent);
 
-            sqlCommand = connection.prepareStatement(sqlQuery2);
-            for (int i = 1; i <= 1000; i++) {
-                sqlCommand.setString(1, "A" + i);
-                sqlCommand.addBatch();
+            if (events == 0) {
+                System.out.println("No events in the given range. Returning to main menu.\n");
+            } else {
+                System.out.println("No more events in the range.\n");
             }
-            sqlCommand.executeBatch();
-            sqlCommand.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Above error when fetching events in the range. Returning to main menu.\n");
+        }
+    }
 
-            sqlStatement.execute("COMMIT");
+    private static void PrintCacheStats() {
+        System.out.println("Cache statistics");
+        System.out.println("=========================================");
+        System.out.println(tracker.LocationIds().Stats());
+        System.out.println(tracker.CustomerIds().Stats());
+        System.out.println(tracker.PackageIds().Stats());
+        System.out.println(tracker.Timelines().Stats());
+        System.out.println("Returning to main menu.\n");
+    }
 
-            endTime = System.currentTimeMillis();
+    private static void PrintMetrics(ConnectionPool pool) {
+        System.out.println("Metrics");
+        System.out.println("=========================================");
+        System.out.print(tracker.Metrics().Dump());
+        System.out.println(pool.Stats());
 
-            System.out.println(
-                    "Finished stage 2 in "
-                    + (endTime - startTime));
+        if (metrics.File() != null) {
+            ExportMetrics();
+            System.out.println("Wrote Prometheus metrics to " + metrics.File() + ".");
+        }
 
-            startTime = System.currentTimeMillis();
+        System.out.println("Returning to main menu.\n");
+    }
 
-            sqlStatement.execute("BEGIN TRANSACTION");
+    // Writes the metrics file once more, so a run shorter than metrics.intervalS still leaves one behind.
+    private static void ExportMetrics() {
+        if (metrics.File() == null) {
+            return;
+        }
 
-            sqlCommand = connection.prepareStatement(sqlQuery3);
-            for (int i = 1; i <= 1000; i++) {
-                sqlCommand.setString(1, "TC" + i);
-                sqlCommand.setInt(2, rand.nextInt(1000));
-                sqlCommand.addBatch();
-            }
-            sqlCommand.executeBatch();
-            sqlCommand.close();
+        try {
+            metrics.WriteTo(metrics.File());
+        } catch (IOException e) {
+            System.err.println("Could not write metrics to " + metrics.File() + ": " + e.getMessage());
+        }
+    }
 
-            sqlStatement.execute("COMMIT");
+    private static void ArchiveEvents(PooledConnection connection) {
+        int days = Math.max(0, settings.GetInt("archive.days", 90));
+        LocalDateTime cutoff = LocalDate.now().minusDays(days).atStartOfDay();
 
-            endTime = System.currentTimeMillis();
+        System.out.println("Archiving events of packages without events since " + cutoff.toLocalDate());
+        System.out.println("=========================================");
+
+        try {
+            var startTime = System.currentTimeMillis();
+            long moved = tracker.ArchiveEvents(
+                    connection,
+                    cutoff,
+                    Math.max(1, settings.GetInt("archive.batchSize", 1000)),
+                    Math.max(0, settings.GetLong("archive.pauseMs", 10)));
 
             System.out.println(
-                    "Finished stage 3 in "
-                    + (endTime - startTime));
+                    "Moved "
+                    + moved
+                    + " events to EventsArchive in "
+                    + (System.currentTimeMillis() - startTime)
+                    + " ms. Returning to main menu.\n");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Above error when archiving events. Returning to main menu.\n");
+        }
+    }
 
-            startTime = System.currentTimeMillis();
+    private static void ImportEvents(PooledConnection connection, String fileName) {
+        System.out.println("Importing events from " + fileName);
+        System.out.println("=========================================");
 
-            for (int mul = 1; mul <= 1000; mul++) {
-                sqlStatement.execute("BEGIN TRANSACTION");
+        try {
+            var importer = new EventImporter(dialect, tracker.LocationIds(), tracker.PackageIds(), tracker.Timelines(), settings);
+            var result = tracker.Metrics().Measure("import_events", connection, imported -> imported.inserted(), () ->
+                    importer.Import(connection, Path.of(fileName)));
 
-                sqlCommand = connection.prepareStatement(sqlQuery4);
-                for (int i = 1; i <= 1000; i++) {
-                    sqlCommand.setInt(1, rand.nextInt(1000));
-                    sqlCommand.setInt(2, rand.nextInt(1000));
-                    sqlCommand.setString(3, "Package registered.");
-                    sqlCommand.addBatch();
-                }
-                sqlCommand.executeBatch();
-                sqlCommand.close();
+            System.out.println(
+                    "Read "
+                    + result.read()
+                    + " rows, inserted "
+                    + result.inserted()
+                    + ", skipped "
+                    + result.skipped()
+                    + " with unknown location or package, "
+                    + result.malformed()
+                    + " malformed.");
+            System.out.println(
+                    "Finished import in "
+                    + result.elapsedMillis()
+                    + " ms ("
+                    + String.format("%.0f", result.RowsPerSecond())
+                    + " rows/s). Returning to main menu.\n");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Above error when importing events. Returning to main menu.\n");
+        }
+    }
 
-                sqlStatement.execute("COMMIT");
-            }
+    private static void ExportSnapshot(PooledConnection connection, String fileName) {
+        System.out.println("Exporting events to " + fileName);
+        System.out.println("=========================================");
 
-            endTime = System.currentTimeMillis();
+        try {
+            var result = tracker.Metrics().Measure("export_snapshot", connection, written -> written.rows(), () ->
+                    EventSnapshot.Write(connection, dialect, Path.of(fileName), Math.max(0, settings.GetInt("read.fetchSize", 1000))));
 
             System.out.println(
-                    "Finished stage 4 in "
-                    + (endTime - startTime));
+                    "Wrote "
+                    + result.rows()
+                    + " events with "
+                    + result.descriptions()
+                    + " distinct descriptions in "
+                    + result.bytes()
+                    + " bytes ("
+                    + String.format("%.1f", result.rows() == 0 ? 0.0 : (double) result.bytes() / result.rows())
+                    + " bytes/event) in "
+                    + result.elapsedMillis()
+                    + " ms. Returning to main menu.\n");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Above error when exporting events. Returning to main menu.\n");
+        }
+    }
+
+    // Answers the three lookups of commands 6, 7 and 8 from a snapshot instead of the database.
+    private static void QuerySnapshot(String fileName, String query) {
+        String kind = query.isEmpty() ? "" : query.substring(0, 1);
+        String name = query.length() < 2 ? "" : query.substring(1).trim();
+
+        if (!kind.equals("p") && !kind.equals("c") && !kind.equals("l") || name.isEmpty()) {
+            System.out.println("Unknown snapshot query. Returning to main menu.\n");
 
-            sqlStatement.execute("SET NOCOUNT OFF");
+            return;
+        }
 
-            connection.setAutoCommit(true);
+        EventSnapshot snapshot;
+
+        try {
+            snapshot = EventSnapshot.Open(Path.of(fileName));
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Above error when opening the snapshot. Returning to main menu.\n");
 
-            startTime = System.currentTimeMillis();
+            return;
+        }
 
-            for (int i = 1; i <= 1000; i++) {
-                sqlCommand = connection.prepareStatement(sqlQuery5);
-                sqlCommand.setInt(1, rand.nextInt(1000));
-                sqlCommand.execute();
-                sqlCommand.getResultSet().close();
-                sqlCommand.close();
+        var startTime = System.currentTimeMillis();
+
+        if (kind.equals("p")) {
+            int packageId = snapshot.PackageId(name);
+
+            if (packageId == -1) {
+                System.out.println("Package with code " + name + " is not in the snapshot. Returning to main menu.\n");
+
+                return;
             }
 
-            endTime = System.currentTimeMillis();
+            List<Event> events = snapshot.EventsForPackage(packageId);
+            events.forEach(Main::PrintEvent);
 
-            System.out.println(
-                    "Finished stage 5 in "
-                    + (endTime - startTime));
+            System.out.println(events.size() + " events.");
+        } else if (kind.equals("c")) {
+            int customerId = snapshot.CustomerId(name);
 
-            startTime = System.currentTimeMillis();
+            if (customerId == -1) {
+                System.out.println("Customer with name " + name + " is not in the snapshot. Returning to main menu.\n");
 
-            for (int i = 1; i <= 1000; i++) {
-                sqlCommand = connection.prepareStatement(sqlQuery6);
-                sqlCommand.setInt(1, rand.nextInt(1000));
-                sqlCommand.execute();
-                sqlCommand.getResultSet().close();
-                sqlCommand.close();
+                return;
             }
 
-            endTime = System.currentTimeMillis();
+            List<PackageEventCount> packages = snapshot.PackagesForCustomerWithEventCounts(customerId);
+
+            for (PackageEventCount found : packages)
+                System.out.println(
+                        found.trackingCode()
+                        + " "
+                        + found.events()
+                        + ", last seen "
+                        + FormatTimestamp(found.lastEventAt())
+                        + " at "
+                        + found.lastLocation());
+
+            System.out.println(packages.size() + " packages with events.");
+        } else {
+            // The date is the last word, so location names may contain spaces.
+            int split = name.lastIndexOf(' ');
+            String location = split < 0 ? name : name.substring(0, split).trim();
+            LocalDate day = LocalDate.parse(name.substring(split + 1));
+            int locationId = snapshot.LocationId(location);
+
+            if (locationId == -1) {
+                System.out.println("Location with name " + location + " is not in the snapshot. Returning to main menu.\n");
 
+                return;
+            }
+
+            List<Event> events = snapshot.EventsForLocationOnDay(locationId, day);
+            events.forEach(Main::PrintEvent);
+
+            System.out.println(events.size() + " events.");
+        }
+
+        System.out.println(
+                "Scanned "
+                + snapshot.Rows()
+                + " events in "
+                + (System.currentTimeMillis() - startTime)
+                + " ms. Returning to main menu.\n");
+    }
+
+    private static void DoReport(ConnectionPool pool) {
+        System.out.println("Reporting on all events");
+        System.out.println("=========================================");
+
+        try {
+            var result = new EventReport(pool, dialect, tracker.Metrics(), settings).Run();
+
+            System.out.print(result.text());
             System.out.println(
-                    "Finished stage 6 in "
-                    + (endTime - startTime));
+                    "Counted "
+                    + result.events()
+                    + " events in "
+                    + result.ranges()
+                    + " id ranges on "
+                    + result.threads()
+                    + " threads in "
+                    + result.elapsedMillis()
+                    + " ms ("
+                    + String.format("%.0f", result.RowsPerSecond())
+                    + " rows/s). Returning to main menu.\n");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Above error when reporting. Returning to main menu.\n");
+        }
+    }
+
+    private static void PrintStage(PerformanceTest.StageResult stage) {
+        System.out.println(
+                "Finished stage "
+                + stage.name()
+                + " in "
+                + stage.elapsedMillis()
+                + " ms ("
+                + String.format("%.0f", stage.RowsPerSecond())
+                + " rows/s)");
+        System.out.println("    latency per operation: " + stage.latencies().Summary());
+    }
+
+    private static void DoPerformanceTest(ConnectionPool pool) {
+        System.out.println("Starting performance test");
+        System.out.println("=========================================");
+
+        var test = new PerformanceTest(pool, dialect, settings);
+
+        System.out.println(test.Describe());
+
+        try {
+            test.Run(Main::PrintStage);
         } catch (Exception e) {
             e.printStackTrace();
             System.out.println("Above error during performance test");
@@ -649,33 +712,163 @@ public class Main {
         System.out.println("Finished performance test. Returning to main menu.");
     }
 
-    private static Connection ConnectToDatabase(String url) {
+    private static void DoLoadTest(ConnectionPool pool) {
+        System.out.println("Starting load test");
+        System.out.println("=========================================");
+
+        try {
+            var test = new LoadTest(pool, tracker, settings);
+
+            System.out.println(test.Describe());
+
+            var result = test.Run();
+
+            System.out.println(
+                    "Completed "
+                    + result.completed()
+                    + " operations in "
+                    + result.elapsedMillis()
+                    + " ms ("
+                    + String.format("%.0f", result.OperationsPerSecond())
+                    + " ops/s), "
+                    + result.dropped()
+                    + " dropped after falling behind");
+
+            for (LoadTest.OperationResult operation : result.operations()) {
+                System.out.println(
+                        String.format("%-9s", operation.name())
+                        + operation.errors()
+                        + " errors, latency from intended start: "
+                        + operation.latencies().Summary());
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Above error during load test");
+        }
+
+        System.out.println("Finished load test. Returning to main menu.");
+    }
+
+    private static void ManageIndexes(PooledConnection connection, boolean create) {
+        System.out.println((create ? "Creating" : "Dropping") + " secondary indexes");
+        System.out.println("=========================================");
+
         try {
-            Connection connection = DriverManager.getConnection(url);
+            if (create) {
+                tracker.CreateIndexes(connection);
+            } else {
+                tracker.DropIndexes(connection);
+            }
+
+            for (Dialect.Index index : dialect.SecondaryIndexes())
+                System.out.println(
+                        index.name()
+                        + " on "
+                        + index.table()
+                        + "("
+                        + index.columns()
+                        + ")"
+                        + (index.include() == null ? "" : " including " + index.include()));
+
+            System.out.println("Finished " + (create ? "creating" : "dropping") + " indexes. Returning to main menu.\n");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Above error when managing indexes. Returning to main menu.\n");
+        }
+    }
+
+    // Runs the same performance test (same seed) on empty tables first without and then with the secondary indexes.
+    private static void DoIndexComparison(ConnectionPool pool) {
+        System.out.println("Starting performance test with and without secondary indexes");
+        System.out.println("=========================================");
+
+        var test = new PerformanceTest(pool, dialect, settings);
+
+        System.out.println(test.Describe());
+
+        try {
+            List<List<PerformanceTest.StageResult>> runs = new ArrayList<>();
+
+            for (boolean indexed : new boolean[] {false, true}) {
+                System.out.println(indexed ? "Run with indexes:" : "Run without indexes:");
+
+                try (PooledConnection connection = pool.Borrow()) {
+                    tracker.ClearTables(connection);
+
+                    if (indexed) {
+                        tracker.CreateIndexes(connection);
+                    } else {
+                        tracker.DropIndexes(connection);
+                    }
+                }
+
+                runs.add(test.Run(Main::PrintStage));
+            }
+
+            System.out.println();
+            System.out.println(String.format(
+                    "%-26s %12s %12s %8s %12s %12s",
+                    "Stage", "without", "with", "change", "p99 without", "p99 with"));
+
+            for (int i = 0; i < runs.get(0).size(); i++) {
+                var without = runs.get(0).get(i);
+                var with = runs.get(1).get(i);
+
+                System.out.println(String.format(
+                        "%-26s %9d ms %9d ms %+7.0f%% %12s %12s",
+                        without.name(),
+                        without.elapsedMillis(),
+                        with.elapsedMillis(),
+                        without.elapsedMillis() == 0 ? 0.0 : (with.elapsedMillis() - without.elapsedMillis()) * 100.0 / without.elapsedMillis(),
+                        LatencyHistogram.Format(without.latencies().PercentileNanos(99)),
+                        LatencyHistogram.Format(with.latencies().PercentileNanos(99))));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Above error during performance test");
+        }
+
+        System.out.println("Finished performance test. Returning to main menu.");
+    }
 
-            String schema = connection.getSchema();
+    private static boolean ConnectToDatabase(ConnectionPool pool) {
+        try (PooledConnection pooled = pool.Borrow()) {
+            String schema = pooled.Connection().getSchema();
 
             System.out.println(
-                    "Successful connection - Schema: "
+                    "Successful connection (" + dialect.Name() + ") - Schema: "
                     + schema);
 
-            return connection;
+            return true;
         } catch (Exception e) {
             e.printStackTrace();
 
-            return null;
+            return false;
+        }
+    }
+
+    private interface ConnectionTask {
+        void Run(PooledConnection connection);
+    }
+
+    private static void WithConnection(ConnectionPool pool, ConnectionTask task) {
+        try (PooledConnection pooled = pool.Borrow()) {
+            task.Run(pooled);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            System.out.println("Above error when getting a database connection. Returning to main menu.\n");
         }
     }
 
-    private static void DoCommand(Connection connection, int commandIndex) {
-        BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+    // Reads any further input from br, the reader the command came from, so no buffered input is lost.
+    private static void DoCommand(ConnectionPool pool, BufferedReader br, int commandIndex) {
 
         switch (commandIndex) {
             case 0:
                 System.out.println("Thank you for using tikape-app. (c) Tommi Venemies 2020");
                 break;
             case 1:
-                CreateDatabase(connection);
+                WithConnection(pool, connection -> CreateDatabase(connection));
                 break;
             case 2:
                 System.out.println("Enter the name of the location to add:");
@@ -686,7 +879,7 @@ public class Main {
                     if (location.isBlank() || location.isEmpty()) {
                         System.out.println("Given location is empty. Returning to menu.\n");
                     } else {
-                        AddNewLocation(connection, location);
+                        WithConnection(pool, connection -> AddNewLocation(connection, location));
                     }
                 }
                 catch (Exception e) {
@@ -703,7 +896,7 @@ public class Main {
                     if (name.isBlank() || name.isEmpty()) {
                         System.out.println("Given name is empty. Returning to menu.\n");
                     } else {
-                        AddNewCustomer(connection, name);
+                        WithConnection(pool, connection -> AddNewCustomer(connection, name));
                     }
                 }
                 catch (Exception e) {
@@ -727,7 +920,7 @@ public class Main {
                         if (code.isBlank() || code.isEmpty()) {
                             System.out.println("Given code is empty. Returning to menu.\n");
                         } else {
-                            AddNewPackage(connection, code, customer);
+                            WithConnection(pool, connection -> AddNewPackage(connection, code, customer));
                         }
                     }
                 }
@@ -758,7 +951,7 @@ public class Main {
                             if (description.isBlank() || description.isEmpty()) {
                                 System.out.println("Given description is empty. Returning to menu.\n");
                             } else {
-                                AddNewEvent(connection, locale, code, description);
+                                WithConnection(pool, connection -> AddNewEvent(connection, locale, code, description));
                             }
                         }
                     }
@@ -777,7 +970,7 @@ public class Main {
                     if (packcode.isBlank() || packcode.isEmpty()) {
                         System.out.println("Given code is empty. Returning to menu.\n");
                     } else {
-                        GetAllEventsForPackage(connection, packcode);
+                        WithConnection(pool, connection -> GetAllEventsForPackage(connection, packcode));
                     }
                 }
                 catch (Exception e) {
@@ -794,7 +987,7 @@ public class Main {
                     if (trackcustomer.isBlank() || trackcustomer.isEmpty()) {
                         System.out.println("Given name is empty. Returning to menu.\n");
                     } else {
-                        GetAllPackagesForCustomerWithNumbers(connection, trackcustomer);
+                        WithConnection(pool, connection -> GetAllPackagesForCustomerWithNumbers(connection, trackcustomer));
                     }
                 }
                 catch (Exception e) {
@@ -818,7 +1011,9 @@ public class Main {
                         if (date.isBlank() || date.isEmpty()) {
                             System.out.println("Given date is empty. Returning to menu.\n");
                         } else {
-                            GetAllEventsForLocationOnGivenDay(connection, loc, date);
+                            LocalDate day = LocalDate.parse(date.trim());
+
+                            WithConnection(pool, connection -> GetAllEventsForLocationOnGivenDay(connection, loc, day));
                         }
                     }
                 }
@@ -828,34 +1023,454 @@ public class Main {
 
                 break;
             case 9:
-                DoPerformanceTest(connection);
+                DoPerformanceTest(pool);
+
+                break;
+            case 10:
+                System.out.println("Enter the path of the CSV or JSONL file to import:");
+
+                try {
+                    String file = br.readLine();
+
+                    if (file.isBlank() || file.isEmpty()) {
+                        System.out.println("Given path is empty. Returning to menu.\n");
+                    } else {
+                        WithConnection(pool, connection -> ImportEvents(connection, file.trim()));
+                    }
+                }
+                catch (Exception e) {
+                    System.out.println("Error in input. Returning to menu.\n");
+                }
+
+                break;
+            case 11:
+                System.out.println("Type c to create or d to drop the secondary indexes:");
+
+                try {
+                    String choice = br.readLine().trim();
+
+                    if (choice.equals("c") || choice.equals("d")) {
+                        WithConnection(pool, connection -> ManageIndexes(connection, choice.equals("c")));
+                    } else {
+                        System.out.println("Unknown choice. Returning to menu.\n");
+                    }
+                }
+                catch (Exception e) {
+                    System.out.println("Error in input. Returning to menu.\n");
+                }
+
+                break;
+            case 12:
+                System.out.println("The comparison deletes all rows from every table. Type y to continue:");
+
+                try {
+                    if (br.readLine().trim().equals("y")) {
+                        DoIndexComparison(pool);
+                    } else {
+                        System.out.println("Cancelled. Returning to menu.\n");
+                    }
+                }
+                catch (Exception e) {
+                    System.out.println("Error in input. Returning to menu.\n");
+                }
+
+                break;
+            case 13:
+                System.out.println("Enter the start of the range (YYYY-MM-DD or YYYY-MM-DD HH:MM):");
+
+                try {
+                    LocalDateTime from = ParseDateTime(br.readLine());
+
+                    System.out.println("Enter the end of the range, exclusive (YYYY-MM-DD or YYYY-MM-DD HH:MM):");
+
+                    LocalDateTime to = ParseDateTime(br.readLine());
+
+                    System.out.println("Enter the location, or leave empty for all locations:");
+
+                    String rangeLocation = br.readLine().trim();
+
+                    System.out.println("Enter the tracking code, or leave empty for all packages:");
+
+                    String rangeCode = br.readLine().trim();
+
+                    if (!to.isAfter(from)) {
+                        System.out.println("The end of the range must be after the start. Returning to menu.\n");
+                    } else {
+                        WithConnection(pool, connection -> GetEventsInTimeRange(connection, from, to, rangeLocation, rangeCode));
+                    }
+                }
+                catch (Exception e) {
+                    System.out.println("Error in input. Returning to menu.\n");
+                }
+
+                break;
+            case 14:
+                System.out.println("Enter the code of the package to track:");
+
+                try {
+                    String latestCode = br.readLine();
+
+                    if (latestCode.isBlank() || latestCode.isEmpty()) {
+                        System.out.println("Given code is empty. Returning to menu.\n");
+                    } else {
+                        WithConnection(pool, connection -> GetLatestEventsForPackage(connection, br, latestCode));
+                    }
+                }
+                catch (Exception e) {
+                    System.out.println("Error in input. Returning to menu.\n");
+                }
+
+                break;
+            case 15:
+                PrintCacheStats();
+
+                break;
+            case 16:
+                DoLoadTest(pool);
+
+                break;
+            case 17:
+                PrintMetrics(pool);
+
+                break;
+            case 18:
+                WithConnection(pool, Main::ArchiveEvents);
+
+                break;
+            case 19:
+                System.out.println("Enter the path of the snapshot file to write:");
+
+                try {
+                    String file = br.readLine();
+
+                    if (file.isBlank() || file.isEmpty()) {
+                        System.out.println("Given path is empty. Returning to menu.\n");
+                    } else {
+                        WithConnection(pool, connection -> ExportSnapshot(connection, file.trim()));
+                    }
+                }
+                catch (Exception e) {
+                    System.out.println("Error in input. Returning to menu.\n");
+                }
+
+                break;
+            case 20:
+                System.out.println("Enter the path of the snapshot file to query:");
+
+                try {
+                    String file = br.readLine();
+
+                    if (file.isBlank() || file.isEmpty()) {
+                        System.out.println("Given path is empty. Returning to menu.\n");
+                    } else {
+                        System.out.println("Type p <tracking code>, c <customer> or l <location> <YYYY-MM-DD>:");
+
+                        QuerySnapshot(file.trim(), br.readLine().trim());
+                    }
+                }
+                catch (Exception e) {
+                    System.out.println("Error in input. Returning to menu.\n");
+                }
+
+                break;
+            case 21:
+                DoReport(pool);
 
                 break;
             default:
-                System.out.println("Unknown command. Enter a single digit between 1 and 9 or q to quit");
+                System.out.println("Unknown command. Enter a number between 1 and 21 or q to quit");
 
                 break;
         }
 
-        PrintMenu();
+        if (commandIndex != 0) {
+            PrintMenu();
+        }
+    }
+
+    // Runs until the process is stopped; the shutdown hook closes the server and then the pool.
+    private static void Serve(ConnectionPool pool) {
+        try {
+            var server = new TrackerServer(pool, tracker, settings);
+
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.close();
+                ExportMetrics();
+                pool.close();
+            }));
+
+            server.Start();
+
+            System.out.println(
+                    "Serving on port "
+                    + server.Port()
+                    + (VirtualThreads.Available() ? " with virtual threads" : " with a fixed thread pool")
+                    + ". Stop with Ctrl+C.");
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Above error when starting the HTTP server.");
+            pool.close();
+        }
+    }
+
+    private static void RunScript(ConnectionPool pool, String path) {
+        var runner = new ScriptRunner(tracker, settings, System.out, System.err);
+
+        try (PooledConnection connection = pool.Borrow();
+             BufferedReader script = path.equals("-")
+                     ? new BufferedReader(new InputStreamReader(System.in))
+                     : Files.newBufferedReader(Path.of(path))) {
+            var summary = runner.Run(connection, script);
+
+            System.err.println(
+                    "Ran "
+                    + summary.commands()
+                    + " commands in "
+                    + summary.elapsedMillis()
+                    + " ms ("
+                    + String.format("%.0f", summary.CommandsPerSecond())
+                    + " commands/s), "
+                    + summary.failed()
+                    + " failed. By command: "
+                    + summary.counts());
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.err.println("Above error stopped the script.");
+        }
+    }
+
+    // Prints the prompt and reads a line; prints the message and returns null when the line is empty.
+    private static String Ask(BufferedReader br, String prompt, String emptyMessage) throws IOException {
+        System.out.println(prompt);
+
+        String line = br.readLine();
+
+        if (line == null || line.isBlank()) {
+            System.out.println(emptyMessage + " Returning to menu.\n");
+
+            return null;
+        }
+
+        return line;
+    }
+
+    // Commands 1 to 8 on the embedded event log of backend=log, with the prompts and messages of the database menu.
+    private static void RunEventLog(EventLog log, BufferedReader br) throws IOException {
+        System.out.println("Welcome to tikape-app on the event log " + log.File() + ". List of available commands:");
+        System.out.println("1. Show the event log");
+        System.out.println("2. Add a new location");
+        System.out.println("3. Add a new customer");
+        System.out.println("4. Add a new package");
+        System.out.println("5. Add a new event");
+        System.out.println("6. Get all events for a package");
+        System.out.println("7. Get all packages for a customer and number of events");
+        System.out.println("8. Get all events for a location on a given day");
+        System.out.println("Type in the number of the command you want to take. Type q to exit");
+
+        String command;
+
+        while ((command = br.readLine()) != null && !command.matches("q")) {
+            try {
+                switch (command.trim()) {
+                    case "1": {
+                        System.out.println(
+                                log.Records()
+                                + " records, "
+                                + log.Events()
+                                + " events, "
+                                + log.Bytes()
+                                + " bytes. Returning to main menu.\n");
+                        break;
+                    }
+                    case "2": {
+                        String location = Ask(br, "Enter the name of the location to add:", "Given location is empty.");
+
+                        if (location != null) {
+                            System.out.println(log.AddLocation(location)
+                                    ? "Finished adding a new location. Returning to main menu.\n"
+                                    : "Location " + location + " already exists. Returning to main menu.\n");
+                        }
+                        break;
+                    }
+                    case "3": {
+                        String name = Ask(br, "Enter the name of the customer to add:", "Given name is empty.");
+
+                        if (name != null) {
+                            System.out.println(log.AddCustomer(name)
+                                    ? "Finished adding a new customer. Returning to main menu.\n"
+                                    : "Customer " + name + " already exists. Returning to main menu.\n");
+                        }
+                        break;
+                    }
+                    case "4": {
+                        String customer = Ask(br, "Enter the name of the customer the package is for:", "Given name is empty.");
+                        String code = customer == null ? null : Ask(br, "Enter the tracking code for the package:", "Given code is empty.");
+
+                        if (code != null) {
+                            int customerId = log.CustomerId(customer);
+
+                            if (customerId == -1) {
+                                System.out.println("Customer " + customer + " does not exist. Unable to add package. Returning to main menu.\n");
+                            } else {
+                                System.out.println(log.AddPackage(code, customerId)
+                                        ? "Finished adding a new package. Returning to main menu.\n"
+                                        : "Package with code " + code + " already exists. Returning to main menu.\n");
+                            }
+                        }
+                        break;
+                    }
+                    case "5": {
+                        String location = Ask(br, "Enter the location of the event:", "Given location is empty.");
+                        String code = location == null ? null : Ask(br, "Enter the tracking code for the package:", "Given code is empty.");
+                        String description = code == null ? null : Ask(br, "Enter the description of the event:", "Given description is empty.");
+
+                        if (description != null) {
+                            switch (log.AddEvent(location, code, description)) {
+                                case ADDED:
+                                    System.out.println("Finished adding an event for package. Returning to main menu.\n");
+                                    break;
+                                case UNKNOWN_LOCATION:
+                                    System.out.println("Location " + location + " does not exist. Unable to add event. Returning to main menu.\n");
+                                    break;
+                                case UNKNOWN_PACKAGE:
+                                    System.out.println("Package with code " + code + " does not exist. Unable to add event. Returning to main menu.\n");
+                                    break;
+                            }
+                        }
+                        break;
+                    }
+                    case "6": {
+                        String code = Ask(br, "Enter the code of the package to track:", "Given code is empty.");
+
+                        if (code != null) {
+                            int packageId = log.PackageId(code);
+                            List<Event> events = packageId == -1 ? null : log.EventsForPackage(packageId);
+
+                            if (events == null) {
+                                System.out.println("Package with code " + code + " does not exist. Unable to retrieve events. Returning to main menu.\n");
+                            } else if (events.isEmpty()) {
+                                System.out.println("Package with code " + code + " has no events. Returning to main menu.\n");
+                            } else {
+                                events.forEach(Main::PrintEvent);
+                                System.out.println("No more events.\n");
+                            }
+                        }
+                        break;
+                    }
+                    case "7": {
+                        String customer = Ask(br, "Enter the name of the customer whose packages to track:", "Given name is empty.");
+
+                        if (customer != null) {
+                            int customerId = log.CustomerId(customer);
+                            List<PackageEventCount> packages = customerId == -1 ? null : log.PackagesForCustomerWithEventCounts(customerId);
+
+                            if (packages == null) {
+                                System.out.println("Customer with name " + customer + " does not exist. Returning to main menu.\n");
+                            } else if (packages.isEmpty()) {
+                                System.out.println("Customer " + customer + " has no packages with events. Returning to main menu.\n");
+                            } else {
+                                for (PackageEventCount found : packages)
+                                    System.out.println(
+                                            found.trackingCode()
+                                            + " "
+                                            + found.events()
+                                            + ", last seen "
+                                            + FormatTimestamp(found.lastEventAt())
+                                            + " at "
+                                            + found.lastLocation());
+
+                                System.out.println("No more packages with events.\n");
+                            }
+                        }
+                        break;
+                    }
+                    case "8": {
+                        String location = Ask(br, "Enter the location to list:", "Given location is empty.");
+                        String date = location == null ? null : Ask(br, "Enter the date (YYYY-MM-DD format):", "Given date is empty.");
+
+                        if (date != null) {
+                            LocalDate day = LocalDate.parse(date.trim());
+                            int locationId = log.LocationId(location);
+                            List<Event> events = locationId == -1 ? null : log.EventsForLocationOnDay(locationId, day);
+
+                            if (events == null) {
+                                System.out.println("Location with name " + location + " does not exist. Returning to main menu.\n");
+                            } else if (events.isEmpty()) {
+                                System.out.println("Date " + day + " has no packages at the location. Returning to main menu.\n");
+                            } else {
+                                events.forEach(Main::PrintEvent);
+                                System.out.println("No more events at the location for the day.\n");
+                            }
+                        }
+                        break;
+                    }
+                    default:
+                        System.out.println("Unknown command. Enter a number between 1 and 8 or q to quit");
+                        break;
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                System.out.println("Above error in the event log. Returning to main menu.\n");
+            }
+        }
+
+        System.out.println("Thank you for using tikape-app. (c) Tommi Venemies 2020");
     }
 
     public static void main(String[] args) throws IOException {
-        Connection connection = null;
-
-        var hostName = "yourdatabaseaddress.windows.net";
-        var dbName = "yourdbname";
-        var user = "yourusername";
-        var password = "yourpassword";
-        var url = String.format(
-                "jdbc:sqlserver:// %s:1433;database=%s;user=%s;password=%s;encrypt=true;"
-                + "hostNameInCertificate=*.database.windows.net;loginTimeout=30;sendStringParameters AsUnicode=false;",
-                hostName,
-                dbName,
-                user,
-                password);
-
-        connection = ConnectToDatabase(url);
+        settings = Settings.Load("tikape.properties");
+
+        if (settings.GetString("backend", "sqlserver").equalsIgnoreCase("log")) {
+            try (var log = new EventLog(settings)) {
+                if (log.DiscardedBytes() > 0) {
+                    System.out.println("Discarded " + log.DiscardedBytes() + " bytes of an interrupted write at the end of the event log.");
+                }
+
+                System.out.println("Replayed " + log.Records() + " records of " + log.File() + " in " + log.RecoveryMillis() + " ms.");
+
+                RunEventLog(log, new BufferedReader(new InputStreamReader(System.in)));
+            }
+
+            return;
+        }
+
+        try {
+            dialect = Dialect.ForName(settings.GetString("backend", "sqlserver"));
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+
+            return;
+        }
+
+        var url = dialect.JdbcUrl(settings);
+
+        var pool = new ConnectionPool(url, settings);
+
+        tracker = new Tracker(dialect, settings);
+        metrics = new MetricsExporter(pool, tracker, settings);
+        metrics.Start();
+
+        if (args.length == 2 && args[0].equals("--script")) {
+            if (settings.GetBoolean("cache.ids.warmup", false)) {
+                WarmUpIdCaches(pool);
+            }
+
+            RunScript(pool, args[1]);
+            ExportMetrics();
+            pool.close();
+
+            return;
+        }
+
+        if (ConnectToDatabase(pool) && settings.GetBoolean("cache.ids.warmup", false)) {
+            WarmUpIdCaches(pool);
+        }
+
+        if (args.length == 1 && args[0].equals("--serve")) {
+            Serve(pool);
+
+            return;
+        }
 
         var br = new BufferedReader(new InputStreamReader(System.in));
 
@@ -868,7 +1483,7 @@ public class Main {
 
             int commandIndex = 0;
 
-            if (command.matches("q"))
+            if (command == null || command.matches("q"))
                 bExitApp = true;
             else {
                 try {
@@ -878,16 +1493,11 @@ public class Main {
                 }
             }
 
-            DoCommand(connection, commandIndex);
+            DoCommand(pool, br, commandIndex);
         } while (!bExitApp);
 
-        if (connection != null) {
-            try {
-                connection.close();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
+        ExportMetrics();
+        pool.close();
     }
 }
 
@@ -0,0 +1,184 @@
+package at.koodi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reopen and crash-recovery checks of {@link EventLog}. Plain Java without a test framework; main.java holds
+ * class Main and is left out, as javac rejects it by its file name. Run with
+ *
+ *     javac -d out $(ls *.java | grep -v '^main.java$') tests/EventLogTest.java && java -cp out at.koodi.EventLogTest
+ *
+ * Exits with status 1 on the first failed check.
+ */
+public class EventLogTest {
+    private static final int EVENTS = 60000;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("eventlog");
+        Path log = directory.resolve("test.log");
+
+        try {
+            ReopenWithChangedSegmentSize(directory, log);
+            TornRecordAtEnd(directory, log);
+            DamagedRecordWithDataAfter(directory, log);
+            SegmentSizeOutOfRange(directory, log);
+
+            System.out.println("EventLogTest passed.");
+        } finally {
+            try (var files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+
+            Files.delete(directory);
+        }
+    }
+
+    // The segment size is taken from the file; a different setting is refused and nothing is lost.
+    private static void ReopenWithChangedSegmentSize(Path directory, Path log) throws IOException {
+        Files.deleteIfExists(log);
+
+        try (EventLog events = new EventLog(Settings(directory, log, "log.segmentMB=1"))) {
+            Fill(events);
+        }
+
+        long size = Files.size(log);
+
+        try (EventLog events = new EventLog(Settings(directory, log, "log.segmentMB=2"))) {
+            Fail("opening with log.segmentMB=2 should fail, got " + events.Events() + " events");
+        } catch (IOException e) {
+            Check(e.getMessage().contains("log.segmentMB=1"), "the error names the stored segment size: " + e.getMessage());
+        }
+
+        Check(Files.size(log) == size, "refusing to open leaves the file as it was");
+
+        try (EventLog events = new EventLog(Settings(directory, log, ""))) {
+            Check(events.Events() == EVENTS, "without the setting all events are back: " + events.Events());
+            Check(events.DiscardedBytes() == 0, "nothing is discarded");
+        }
+
+        try (EventLog events = new EventLog(Settings(directory, log, "log.segmentMB=1"))) {
+            Check(events.Events() == EVENTS, "with the original setting all events are back: " + events.Events());
+            Check(events.EventsForPackage(events.PackageId("TC7")).size() == EVENTS / 100, "package history is complete");
+        }
+    }
+
+    // A record cut short at the end of the log is cleared and the log stays usable.
+    private static void TornRecordAtEnd(Path directory, Path log) throws IOException {
+        Files.deleteIfExists(log);
+
+        Settings settings = Settings(directory, log, "log.segmentMB=1");
+        long end;
+
+        try (EventLog events = new EventLog(settings)) {
+            Fill(events);
+            end = events.Bytes();
+        }
+
+        // Flip a byte of the last record's description and leave garbage right after it.
+        Write(log, 64 + end - 4, new byte[] {0x55});
+        Write(log, 64 + end + 16, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+
+        try (EventLog events = new EventLog(settings)) {
+            Check(events.Events() == EVENTS - 1, "only the torn event is lost: " + events.Events());
+            Check(events.DiscardedBytes() > 0, "the torn bytes are reported");
+            Check(events.AddEvent("P1", "TC1", "Again.") == EventResult.ADDED, "appending after recovery works");
+        }
+
+        try (EventLog events = new EventLog(settings)) {
+            Check(events.Events() == EVENTS, "the appended event survives: " + events.Events());
+            Check(events.DiscardedBytes() == 0, "a clean log discards nothing");
+        }
+    }
+
+    // A damaged record followed by more records is not a torn write; the log is refused, not truncated.
+    private static void DamagedRecordWithDataAfter(Path directory, Path log) throws IOException {
+        Files.deleteIfExists(log);
+
+        Settings settings = Settings(directory, log, "log.segmentMB=1");
+
+        try (EventLog events = new EventLog(settings)) {
+            Fill(events);
+        }
+
+        long size = Files.size(log);
+
+        Write(log, 64 + 1000, new byte[] {0x55, 0x55, 0x55, 0x55});
+
+        try (EventLog events = new EventLog(settings)) {
+            Fail("a log damaged in the middle should not open, got " + events.Events() + " events");
+        } catch (IOException e) {
+            Check(e.getMessage().contains("damaged"), "the error tells the log is damaged: " + e.getMessage());
+        }
+
+        Check(Files.size(log) == size, "the damaged log is left as it was");
+    }
+
+    // A segment size past what one mapping can hold is refused before a log is created with it.
+    private static void SegmentSizeOutOfRange(Path directory, Path log) throws IOException {
+        Files.deleteIfExists(log);
+
+        for (String size : new String[] {"0", "1025", "2048"}) {
+            try (EventLog events = new EventLog(Settings(directory, log, "log.segmentMB=" + size))) {
+                Fail("opening with log.segmentMB=" + size + " should fail, got " + events.Events() + " events");
+            } catch (IllegalArgumentException e) {
+                Check(e.getMessage().contains("log.segmentMB"), "the error names the setting: " + e.getMessage());
+            }
+
+            Check(!Files.exists(log), "no log is created with log.segmentMB=" + size);
+        }
+
+        try (EventLog events = new EventLog(Settings(directory, log, "log.segmentMB=1024"))) {
+            Check(events.AddLocation("P1"), "a log with 1024 MB segments is usable");
+        }
+
+        try (EventLog events = new EventLog(Settings(directory, log, ""))) {
+            Check(events.LocationId("P1") != -1, "a log with 1024 MB segments reopens");
+        }
+    }
+
+    // Enough events to span several 1 MB segments.
+    private static void Fill(EventLog events) throws IOException {
+        events.AddLocation("P1");
+        events.AddCustomer("A1");
+
+        for (int i = 0; i < 100; i++) {
+            events.AddPackage("TC" + i, 1);
+        }
+
+        for (int i = 0; i < EVENTS; i++) {
+            events.AddEvent("P1", "TC" + (i % 100), "In transit to the next depot.");
+        }
+    }
+
+    private static Settings Settings(Path directory, Path log, String line) throws IOException {
+        Path properties = directory.resolve("test.properties");
+
+        Files.writeString(properties, "log.file=" + log.toString().replace("\\", "/") + "\n" + line + "\n");
+
+        return Settings.Load(properties.toString());
+    }
+
+    private static void Write(Path file, long position, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes), position);
+        }
+    }
+
+    private static void Check(boolean condition, String message) {
+        if (!condition) {
+            Fail(message);
+        }
+    }
+
+    private static void Fail(String message) {
+        System.out.println("FAILED: " + message);
+        System.exit(1);
+    }
+}